@@ -19,26 +19,39 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import com.crcrch.chromatictuner.app.AnalysisConfiguration;
 import com.crcrch.chromatictuner.app.R;
-import com.github.mikephil.charting.charts.LineChart;
-import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineData;
-import com.github.mikephil.charting.data.LineDataSet;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.crcrch.chromatictuner.util.Decimator;
+import com.crcrch.chromatictuner.util.FramePacer;
+import com.crcrch.chromatictuner.util.FrameTimeStats;
+import com.crcrch.chromatictuner.util.LttbDecimator;
+import com.crcrch.chromatictuner.util.MinMaxDecimator;
+import com.crcrch.chromatictuner.util.TripleBuffer;
 
 public abstract class GraphFragment extends Fragment {
+    private static final String TAG = "GraphFragment";
     private static final String STATE_DATA = "data";
 
+    // The values of the graphDecimation attribute
+    private static final int DECIMATION_NONE = 0;
+    private static final int DECIMATION_MIN_MAX = 1;
+    private static final int DECIMATION_LTTB = 2;
+
+    private final FrameTimeStats frameTimeStats =
+            new FrameTimeStats(FramePacer.NOMINAL_FRAME_INTERVAL_NANOS);
+
     private String graphDescription;
+    @Nullable
+    private Decimator decimator;
 
-    private LineChart graph;
+    private LineGraph graph;
     private float[] data;
 
     @Override
@@ -46,6 +59,8 @@ public abstract class GraphFragment extends Fragment {
         super.onInflate(context, attrs, savedInstanceState);
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.GraphFragment);
         graphDescription = a.getString(R.styleable.GraphFragment_graphDescription);
+        decimator = createDecimator(a.getInt(R.styleable.GraphFragment_graphDecimation,
+                DECIMATION_NONE));
         a.recycle();
     }
 
@@ -53,11 +68,15 @@ public abstract class GraphFragment extends Fragment {
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
-        View view = inflater.inflate(R.layout.fragment_power_spectrum, container, false);
+        int layout = AnalysisConfiguration.from(getActivity()).useGraphRenderThread()
+                ? R.layout.fragment_graph_surface : R.layout.fragment_power_spectrum;
+        View view = inflater.inflate(layout, container, false);
 
-        graph = (LineChart) view.findViewById(R.id.graph);
+        graph = (LineGraph) view.findViewById(R.id.graph);
         graph.setNoDataText(getString(R.string.graph_no_data));
         graph.setDescription(graphDescription);
+        graph.setFrameTimeStats(frameTimeStats);
+        graph.setDecimator(decimator);
 
         if (savedInstanceState != null) {
             float[] savedData = savedInstanceState.getFloatArray(STATE_DATA);
@@ -69,6 +88,24 @@ public abstract class GraphFragment extends Fragment {
         return view;
     }
 
+    @Nullable
+    private static Decimator createDecimator(int decimation) {
+        switch (decimation) {
+            case DECIMATION_MIN_MAX:
+                return new MinMaxDecimator();
+            case DECIMATION_LTTB:
+                return new LttbDecimator();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        Log.d(TAG, "UI frames: " + frameTimeStats);
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -83,33 +120,56 @@ public abstract class GraphFragment extends Fragment {
      */
     public void setData(@NonNull float[] data) {
         this.data = data;
+        graph.setFrames(null);
+        graph.setData(data);
+        configureGraph(graph);
+    }
 
-        LineDataSet series = createLineDataSet(data);
-        LineData graphData = new LineData(series);
-        graph.setData(graphData);
-
-        configureGraph(graph, series);
+    /**
+     * Should be called on the UI thread to give this fragment the frames that another thread
+     * publishes. While the graph is shown, it checks for a new frame on every display frame and
+     * only redraws when one has been published, so the publisher does not need to notify this
+     * fragment.
+     *
+     * @param frames the frames to show
+     */
+    public void setFrames(@NonNull TripleBuffer frames) {
+        setData(new float[frames.getFrameLength()]);
+        graph.setFrames(frames);
     }
 
-    protected LineDataSet createLineDataSet(@NonNull float[] data) {
-        List<Entry> amplitudes = new ArrayList<>(data.length);
-        for (int i = 0; i < data.length; i++) {
-            amplitudes.add(new FloatArrayEntry(data, i));
+    /**
+     * Sets the decimator that the graph reduces the data to its resolution with, which can also
+     * be set with the {@code graphDecimation} attribute.
+     *
+     * @param decimator the decimator, or null to draw every point
+     */
+    public void setDecimator(@Nullable Decimator decimator) {
+        this.decimator = decimator;
+        if (graph != null) {
+            graph.setDecimator(decimator);
         }
-        return new LineDataSet(amplitudes, null);
     }
 
-    protected abstract void configureGraph(LineChart graph, LineDataSet series);
+    protected abstract void configureGraph(LineGraph graph);
 
-    public LineChart getGraph() {
+    public LineGraph getGraph() {
         return graph;
     }
 
+    /**
+     * Returns the statistics of the display frames since this fragment was created.
+     *
+     * @return the frame time statistics
+     */
+    public FrameTimeStats getFrameTimeStats() {
+        return frameTimeStats;
+    }
+
     /**
      * Should be called the underlying data is changed.
      */
     public void notifyDataSetChanged() {
         graph.notifyDataSetChanged();
-        graph.invalidate();
     }
 }
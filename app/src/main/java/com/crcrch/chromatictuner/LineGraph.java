@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner;
+
+import android.support.annotation.ColorInt;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.crcrch.chromatictuner.util.Decimator;
+import com.crcrch.chromatictuner.util.FrameTimeStats;
+import com.crcrch.chromatictuner.util.TripleBuffer;
+
+/**
+ * A view that draws a {@code float[]} as a line graph, where the x value of each point is its
+ * index. Implementations differ in the thread that they draw on.
+ * <p/>
+ * The methods must be called on the UI thread.
+ */
+public interface LineGraph {
+    /**
+     * Formats the values of an axis for its labels.
+     */
+    interface ValueFormatter {
+        /**
+         * @param value an x value, which is an index into the data, or a y value
+         * @return the label of the value
+         */
+        String format(float value);
+    }
+
+    /**
+     * Sets the array to draw. The graph keeps a reference to the array, so changes to it are
+     * drawn after {@link #notifyDataSetChanged()} is called.
+     *
+     * @param data the y values of the points
+     */
+    void setData(@NonNull float[] data);
+
+    /**
+     * Sets frames that another thread publishes. While the graph is shown, it checks for a new
+     * frame on every display frame, copies it into the array given to
+     * {@link #setData(float[])} and redraws; nothing is redrawn when no frame was published.
+     * The graph is the only consumer of the frames.
+     *
+     * @param frames the frames, of the same length as the data, or null to stop checking
+     */
+    void setFrames(@Nullable TripleBuffer frames);
+
+    /**
+     * Removes the data, so that the no data text is drawn instead.
+     */
+    void clear();
+
+    /**
+     * Should be called after the data is changed.
+     */
+    void notifyDataSetChanged();
+
+    /**
+     * Sets the decimator that reduces the data to the resolution of the plot before it is
+     * drawn, which saves drawing many more points than the plot has pixel columns. The data
+     * itself is kept, so touching the graph still highlights any point.
+     *
+     * @param decimator the decimator, or null to draw every point
+     */
+    void setDecimator(@Nullable Decimator decimator);
+
+    void setLineColor(@ColorInt int color);
+
+    void setYRange(float minY, float maxY);
+
+    /**
+     * @param formatter the formatter of the x axis labels, or null to draw no x labels
+     */
+    void setXLabelFormatter(@Nullable ValueFormatter formatter);
+
+    /**
+     * @param formatter the formatter of the y axis labels on both sides, or null to draw no y
+     * labels
+     */
+    void setYLabelFormatter(@Nullable ValueFormatter formatter);
+
+    void setDrawGridLines(boolean drawGridLines);
+
+    void setDrawZeroLine(boolean drawZeroLine);
+
+    /**
+     * @param highlightEnabled whether touching the graph highlights the nearest point
+     */
+    void setHighlightEnabled(boolean highlightEnabled);
+
+    /**
+     * @param description the text drawn in the bottom right corner
+     */
+    void setDescription(@Nullable String description);
+
+    void setNoDataText(@Nullable String noDataText);
+
+    /**
+     * @param noDataTextDescription the text drawn below the no data text
+     */
+    void setNoDataTextDescription(@Nullable String noDataTextDescription);
+
+    /**
+     * @param frameTimeStats the statistics to record display frames and draw durations in, or
+     * null
+     */
+    void setFrameTimeStats(@Nullable FrameTimeStats frameTimeStats);
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner;
+
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.support.annotation.ColorInt;
+import android.support.annotation.Nullable;
+import android.util.TypedValue;
+import com.crcrch.chromatictuner.util.Decimator;
+
+/**
+ * Draws the line graph of a {@link LineGraph} onto a canvas. Nothing is allocated per point or
+ * per frame: the line is drawn from a reused buffer of segments, optionally after decimating the
+ * data to the width of the plot, and the axis labels are only formatted when the axes or the
+ * size change.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+class LineGraphRenderer {
+    private static final int X_LABEL_COUNT = 6;
+    private static final int Y_LABEL_COUNT = 7;
+    private static final float LABEL_TEXT_SIZE_DP = 10;
+    private static final float LABEL_MARGIN_DP = 4;
+    private static final float LINE_WIDTH_DP = 1;
+    private static final int GRID_COLOR = Color.LTGRAY;
+    private static final int TEXT_COLOR = Color.DKGRAY;
+    private static final int HIGHLIGHT_COLOR = Color.rgb(255, 187, 115);
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gridPaint = new Paint();
+    private final Paint zeroLinePaint = new Paint();
+    private final Paint highlightPaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF plot = new RectF();
+    private final float labelMargin;
+
+    @Nullable
+    private float[] data;
+    private float[] segments = new float[0];
+    @Nullable
+    private Decimator decimator;
+    private float[] decimatedX = new float[0];
+    private float[] decimatedY = new float[0];
+
+    private float minY = 0;
+    private float maxY = 1;
+    @Nullable
+    private LineGraph.ValueFormatter xLabelFormatter;
+    @Nullable
+    private LineGraph.ValueFormatter yLabelFormatter;
+    private boolean drawGridLines = true;
+    private boolean drawZeroLine;
+    private boolean highlightEnabled;
+    private int highlightIndex = -1;
+
+    @Nullable
+    private String description;
+    @Nullable
+    private String noDataText;
+    @Nullable
+    private String noDataTextDescription;
+
+    // Recomputed by updateLabels() only when the axes or the size change
+    private boolean labelsChanged = true;
+    private int width;
+    private int height;
+    private int paddingLeft;
+    private int paddingTop;
+    private int paddingRight;
+    private int paddingBottom;
+    private String[] xLabels = new String[0];
+    private final String[] yLabels = new String[Y_LABEL_COUNT];
+
+    LineGraphRenderer(Resources resources) {
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(dpToPx(resources, LINE_WIDTH_DP));
+        gridPaint.setColor(GRID_COLOR);
+        zeroLinePaint.setColor(Color.GRAY);
+        highlightPaint.setColor(HIGHLIGHT_COLOR);
+        textPaint.setColor(TEXT_COLOR);
+        textPaint.setTextSize(dpToPx(resources, LABEL_TEXT_SIZE_DP));
+        labelMargin = dpToPx(resources, LABEL_MARGIN_DP);
+    }
+
+    private static float dpToPx(Resources resources, float dp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp,
+                resources.getDisplayMetrics());
+    }
+
+    @Nullable
+    float[] getData() {
+        return data;
+    }
+
+    void setData(@Nullable float[] data) {
+        if (data == null || this.data == null || this.data.length != data.length) {
+            highlightIndex = -1;
+            labelsChanged = true;
+        }
+        this.data = data;
+    }
+
+    void setDecimator(@Nullable Decimator decimator) {
+        this.decimator = decimator;
+    }
+
+    void setLineColor(@ColorInt int color) {
+        linePaint.setColor(color);
+    }
+
+    void setYRange(float minY, float maxY) {
+        if (!(minY < maxY)) {
+            throw new IllegalArgumentException("invalid y range: " + minY + " to " + maxY);
+        }
+        this.minY = minY;
+        this.maxY = maxY;
+        labelsChanged = true;
+    }
+
+    void setXLabelFormatter(@Nullable LineGraph.ValueFormatter formatter) {
+        xLabelFormatter = formatter;
+        labelsChanged = true;
+    }
+
+    void setYLabelFormatter(@Nullable LineGraph.ValueFormatter formatter) {
+        yLabelFormatter = formatter;
+        labelsChanged = true;
+    }
+
+    void setDrawGridLines(boolean drawGridLines) {
+        this.drawGridLines = drawGridLines;
+    }
+
+    void setDrawZeroLine(boolean drawZeroLine) {
+        this.drawZeroLine = drawZeroLine;
+    }
+
+    void setHighlightEnabled(boolean highlightEnabled) {
+        this.highlightEnabled = highlightEnabled;
+        if (!highlightEnabled) {
+            highlightIndex = -1;
+        }
+    }
+
+    boolean isHighlightEnabled() {
+        return highlightEnabled;
+    }
+
+    void setDescription(@Nullable String description) {
+        this.description = description;
+    }
+
+    void setNoDataText(@Nullable String noDataText) {
+        this.noDataText = noDataText;
+    }
+
+    void setNoDataTextDescription(@Nullable String noDataTextDescription) {
+        this.noDataTextDescription = noDataTextDescription;
+    }
+
+    /**
+     * Highlights the point nearest to a touch.
+     *
+     * @param x the x coordinate of the touch
+     * @return whether the highlight changed
+     */
+    boolean highlight(float x) {
+        if (!highlightEnabled || data == null || data.length == 0 || plot.width() <= 0) {
+            return false;
+        }
+        int index = Math.round((x - plot.left) / plot.width() * (data.length - 1));
+        index = Math.max(0, Math.min(data.length - 1, index));
+        if (index == highlightIndex) {
+            return false;
+        }
+        highlightIndex = index;
+        return true;
+    }
+
+    /**
+     * Formats the axis labels and fits the plot area around them.
+     */
+    private void updateLabels() {
+        labelsChanged = false;
+        int numPoints = data == null ? 0 : data.length;
+
+        float yLabelWidth = 0;
+        for (int i = 0; i < Y_LABEL_COUNT; i++) {
+            if (yLabelFormatter == null) {
+                yLabels[i] = null;
+            } else {
+                yLabels[i] = yLabelFormatter.format(getYLabelValue(i));
+                yLabelWidth = Math.max(yLabelWidth, textPaint.measureText(yLabels[i]));
+            }
+        }
+
+        int numXLabels = xLabelFormatter == null ? 0 : Math.min(X_LABEL_COUNT, numPoints);
+        if (xLabels.length != numXLabels) {
+            xLabels = new String[numXLabels];
+        }
+        for (int i = 0; i < numXLabels; i++) {
+            xLabels[i] = xLabelFormatter.format(getXLabelIndex(i, numXLabels, numPoints));
+        }
+
+        float textHeight = textPaint.getFontSpacing();
+        float horizontalInset = yLabelFormatter == null ? 0 : yLabelWidth + 2 * labelMargin;
+        plot.set(paddingLeft + horizontalInset,
+                paddingTop + textHeight / 2,
+                width - paddingRight - horizontalInset,
+                height - paddingBottom
+                        - (numXLabels == 0 ? textHeight / 2 : textHeight + labelMargin));
+    }
+
+    private float getYLabelValue(int i) {
+        return minY + (maxY - minY) * i / (Y_LABEL_COUNT - 1);
+    }
+
+    private static int getXLabelIndex(int i, int numLabels, int numPoints) {
+        if (numLabels < 2) {
+            return 0;
+        }
+        return Math.round((float) i * (numPoints - 1) / (numLabels - 1));
+    }
+
+    private float getX(float index, int numPoints) {
+        if (numPoints < 2) {
+            return plot.left;
+        }
+        return plot.left + plot.width() * index / (numPoints - 1);
+    }
+
+    private float getY(float value) {
+        return plot.top + plot.height() * (maxY - value) / (maxY - minY);
+    }
+
+    /**
+     * Draws the graph.
+     *
+     * @param canvas the canvas to draw on
+     * @param width the width of the graph
+     * @param height the height of the graph
+     * @param paddingLeft the left padding
+     * @param paddingTop the top padding
+     * @param paddingRight the right padding
+     * @param paddingBottom the bottom padding
+     */
+    void draw(Canvas canvas, int width, int height, int paddingLeft, int paddingTop,
+              int paddingRight, int paddingBottom) {
+        if (width != this.width || height != this.height || paddingLeft != this.paddingLeft
+                || paddingTop != this.paddingTop || paddingRight != this.paddingRight
+                || paddingBottom != this.paddingBottom) {
+            this.width = width;
+            this.height = height;
+            this.paddingLeft = paddingLeft;
+            this.paddingTop = paddingTop;
+            this.paddingRight = paddingRight;
+            this.paddingBottom = paddingBottom;
+            labelsChanged = true;
+        }
+
+        float[] data = this.data;
+        if (data == null) {
+            drawNoData(canvas);
+            return;
+        }
+        if (labelsChanged) {
+            updateLabels();
+        }
+
+        drawAxes(canvas, data.length);
+
+        // Without a decimator, the x values are the indices of the data
+        float[] pointsX = null;
+        float[] pointsY = data;
+        int numPoints = data.length;
+        if (decimator != null && plot.width() >= 1) {
+            int numColumns = (int) plot.width();
+            int outputLength = decimator.getOutputLength(data.length, numColumns);
+            if (decimatedY.length != outputLength) {
+                decimatedX = new float[outputLength];
+                decimatedY = new float[outputLength];
+            }
+            numPoints = decimator.decimate(data, numColumns, decimatedX, decimatedY);
+            pointsX = decimatedX;
+            pointsY = decimatedY;
+        }
+
+        int numSegments = numPoints - 1;
+        if (numSegments > 0) {
+            if (segments.length != 4 * numSegments) {
+                segments = new float[4 * numSegments];
+            }
+            float x = getX(pointsX == null ? 0 : pointsX[0], data.length);
+            float y = getY(pointsY[0]);
+            for (int i = 0; i < numSegments; i++) {
+                segments[4 * i] = x;
+                segments[4 * i + 1] = y;
+                x = getX(pointsX == null ? i + 1 : pointsX[i + 1], data.length);
+                y = getY(pointsY[i + 1]);
+                segments[4 * i + 2] = x;
+                segments[4 * i + 3] = y;
+            }
+            canvas.save();
+            canvas.clipRect(plot);
+            canvas.drawLines(segments, 0, 4 * numSegments, linePaint);
+            canvas.restore();
+        }
+
+        if (highlightIndex >= 0 && highlightIndex < data.length) {
+            float x = getX(highlightIndex, data.length);
+            float y = getY(data[highlightIndex]);
+            canvas.drawLine(x, plot.top, x, plot.bottom, highlightPaint);
+            if (y >= plot.top && y <= plot.bottom) {
+                canvas.drawLine(plot.left, y, plot.right, y, highlightPaint);
+            }
+        }
+
+        if (description != null) {
+            textPaint.setTextAlign(Paint.Align.RIGHT);
+            canvas.drawText(description, plot.right - labelMargin,
+                    plot.bottom - labelMargin, textPaint);
+        }
+    }
+
+    private void drawAxes(Canvas canvas, int numPoints) {
+        float textOffset = -(textPaint.ascent() + textPaint.descent()) / 2;
+        for (int i = 0; i < Y_LABEL_COUNT; i++) {
+            float y = getY(getYLabelValue(i));
+            if (drawGridLines) {
+                canvas.drawLine(plot.left, y, plot.right, y, gridPaint);
+            }
+            if (yLabels[i] != null) {
+                textPaint.setTextAlign(Paint.Align.RIGHT);
+                canvas.drawText(yLabels[i], plot.left - labelMargin, y + textOffset, textPaint);
+                textPaint.setTextAlign(Paint.Align.LEFT);
+                canvas.drawText(yLabels[i], plot.right + labelMargin, y + textOffset, textPaint);
+            }
+        }
+
+        for (int i = 0; i < xLabels.length; i++) {
+            float x = getX(getXLabelIndex(i, xLabels.length, numPoints), numPoints);
+            if (drawGridLines) {
+                canvas.drawLine(x, plot.top, x, plot.bottom, gridPaint);
+            }
+            textPaint.setTextAlign(Paint.Align.CENTER);
+            canvas.drawText(xLabels[i], x, plot.bottom + labelMargin - textPaint.ascent(),
+                    textPaint);
+        }
+
+        if (drawZeroLine && minY <= 0 && maxY >= 0) {
+            float y = getY(0);
+            canvas.drawLine(plot.left, y, plot.right, y, zeroLinePaint);
+        }
+    }
+
+    private void drawNoData(Canvas canvas) {
+        float x = width / 2f;
+        float y = height / 2f;
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        if (noDataText != null) {
+            canvas.drawText(noDataText, x, y, textPaint);
+        }
+        if (noDataTextDescription != null) {
+            canvas.drawText(noDataTextDescription, x, y + textPaint.getFontSpacing(), textPaint);
+        }
+    }
+}
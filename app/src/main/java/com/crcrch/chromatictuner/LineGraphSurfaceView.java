@@ -0,0 +1,363 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.ColorInt;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import com.crcrch.chromatictuner.util.Decimator;
+import com.crcrch.chromatictuner.util.FramePacer;
+import com.crcrch.chromatictuner.util.FrameTimeStats;
+import com.crcrch.chromatictuner.util.TripleBuffer;
+
+/**
+ * A {@link LineGraph} that draws on a dedicated render thread into a {@link SurfaceView}, so
+ * that the graph stays smooth while the UI thread is busy. The render thread runs while the
+ * surface exists and checks for new frames once per display frame; it only redraws when a new
+ * frame was published or the graph was changed from the UI thread.
+ * <p/>
+ * The renderer is shared between the threads and guarded by its own monitor. Since the surface
+ * is composited separately from the window, view alpha animations do not fade the graph.
+ */
+public class LineGraphSurfaceView extends SurfaceView implements LineGraph,
+        SurfaceHolder.Callback {
+    private static final String RENDER_THREAD_NAME = "GraphRenderer";
+    @ColorInt
+    private static final int BACKGROUND_COLOR = Color.WHITE;
+
+    private final LineGraphRenderer renderer;
+    private final Runnable requestedDraw = new Runnable() {
+        @Override
+        public void run() {
+            draw();
+        }
+    };
+
+    // Guarded by renderer
+    @Nullable
+    private TripleBuffer frames;
+    @Nullable
+    private FrameTimeStats frameTimeStats;
+    private int width;
+    private int height;
+
+    // Only used on the UI thread
+    @Nullable
+    private HandlerThread renderThread;
+    @Nullable
+    private Handler renderHandler;
+
+    // Only used on the render thread
+    private FramePacer framePacer;
+
+    public LineGraphSurfaceView(Context context) {
+        this(context, null);
+    }
+
+    public LineGraphSurfaceView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public LineGraphSurfaceView(Context context, @Nullable AttributeSet attrs,
+                                int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        renderer = new LineGraphRenderer(getResources());
+        getHolder().addCallback(this);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        renderThread = new HandlerThread(RENDER_THREAD_NAME, Process.THREAD_PRIORITY_DISPLAY);
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                framePacer = FramePacer.create(new FramePacer.Callback() {
+                    @Override
+                    public void onFrame(long frameTimeNanos) {
+                        renderFrame(frameTimeNanos);
+                    }
+                });
+                framePacer.start();
+            }
+        });
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        synchronized (renderer) {
+            this.width = width;
+            this.height = height;
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // The surface must not be drawn on after this returns.
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                framePacer.stop();
+                Looper.myLooper().quit();
+            }
+        });
+        boolean interrupted = false;
+        while (true) {
+            try {
+                renderThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        renderThread = null;
+        renderHandler = null;
+        synchronized (renderer) {
+            if (frameTimeStats != null) {
+                frameTimeStats.pause();
+            }
+        }
+    }
+
+    /**
+     * Draws a new frame if one has been published. Called on the render thread.
+     */
+    private void renderFrame(long frameTimeNanos) {
+        boolean rendered = false;
+        FrameTimeStats frameTimeStats;
+        synchronized (renderer) {
+            float[] data = renderer.getData();
+            if (frames != null && data != null && frames.acquire()) {
+                float[] frame = frames.getFrontBuffer();
+                System.arraycopy(frame, 0, data, 0, frame.length);
+                rendered = true;
+            }
+            frameTimeStats = this.frameTimeStats;
+        }
+        if (rendered) {
+            draw();
+        }
+        if (frameTimeStats != null) {
+            frameTimeStats.recordFrame(frameTimeNanos, rendered);
+        }
+    }
+
+    /**
+     * Draws the graph onto the surface. Called on the render thread.
+     */
+    private void draw() {
+        SurfaceHolder holder = getHolder();
+        Canvas canvas = holder.lockCanvas();
+        if (canvas == null) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        FrameTimeStats frameTimeStats;
+        try {
+            canvas.drawColor(BACKGROUND_COLOR);
+            synchronized (renderer) {
+                renderer.draw(canvas, width, height, getPaddingLeft(), getPaddingTop(),
+                        getPaddingRight(), getPaddingBottom());
+                frameTimeStats = this.frameTimeStats;
+            }
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+        if (frameTimeStats != null) {
+            frameTimeStats.recordDraw(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Redraws the graph on the render thread, if the surface exists.
+     */
+    private void requestDraw() {
+        if (renderHandler != null) {
+            renderHandler.removeCallbacks(requestedDraw);
+            renderHandler.post(requestedDraw);
+        }
+    }
+
+    @Override
+    public void setData(@NonNull float[] data) {
+        synchronized (renderer) {
+            renderer.setData(data);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setFrames(@Nullable TripleBuffer frames) {
+        synchronized (renderer) {
+            this.frames = frames;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (renderer) {
+            renderer.setData(null);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        requestDraw();
+    }
+
+    @Override
+    public void setDecimator(@Nullable Decimator decimator) {
+        synchronized (renderer) {
+            renderer.setDecimator(decimator);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setLineColor(@ColorInt int color) {
+        synchronized (renderer) {
+            renderer.setLineColor(color);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setYRange(float minY, float maxY) {
+        synchronized (renderer) {
+            renderer.setYRange(minY, maxY);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setXLabelFormatter(@Nullable ValueFormatter formatter) {
+        synchronized (renderer) {
+            renderer.setXLabelFormatter(formatter);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setYLabelFormatter(@Nullable ValueFormatter formatter) {
+        synchronized (renderer) {
+            renderer.setYLabelFormatter(formatter);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setDrawGridLines(boolean drawGridLines) {
+        synchronized (renderer) {
+            renderer.setDrawGridLines(drawGridLines);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setDrawZeroLine(boolean drawZeroLine) {
+        synchronized (renderer) {
+            renderer.setDrawZeroLine(drawZeroLine);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setHighlightEnabled(boolean highlightEnabled) {
+        synchronized (renderer) {
+            renderer.setHighlightEnabled(highlightEnabled);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setDescription(@Nullable String description) {
+        synchronized (renderer) {
+            renderer.setDescription(description);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setNoDataText(@Nullable String noDataText) {
+        synchronized (renderer) {
+            renderer.setNoDataText(noDataText);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setNoDataTextDescription(@Nullable String noDataTextDescription) {
+        synchronized (renderer) {
+            renderer.setNoDataTextDescription(noDataTextDescription);
+        }
+        requestDraw();
+    }
+
+    @Override
+    public void setFrameTimeStats(@Nullable FrameTimeStats frameTimeStats) {
+        synchronized (renderer) {
+            this.frameTimeStats = frameTimeStats;
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        synchronized (renderer) {
+            if (!renderer.isHighlightEnabled()) {
+                return super.onTouchEvent(event);
+            }
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                boolean changed;
+                synchronized (renderer) {
+                    changed = renderer.highlight(event.getX());
+                }
+                if (changed) {
+                    requestDraw();
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                performClick();
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.support.annotation.ColorInt;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import com.crcrch.chromatictuner.util.Decimator;
+import com.crcrch.chromatictuner.util.FramePacer;
+import com.crcrch.chromatictuner.util.FrameTimeStats;
+import com.crcrch.chromatictuner.util.TripleBuffer;
+
+/**
+ * A {@link LineGraph} that draws on the UI thread. Updating the data and calling
+ * {@link #notifyDataSetChanged()} only redraws the view, and frames set with
+ * {@link #setFrames(TripleBuffer)} are checked for once per display frame while the view is
+ * attached to a visible window.
+ */
+public class LineGraphView extends View implements LineGraph {
+    private final LineGraphRenderer renderer;
+    private final FramePacer framePacer;
+
+    @Nullable
+    private TripleBuffer frames;
+    @Nullable
+    private FrameTimeStats frameTimeStats;
+    private boolean attached;
+
+    public LineGraphView(Context context) {
+        this(context, null);
+    }
+
+    public LineGraphView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public LineGraphView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        renderer = new LineGraphRenderer(getResources());
+        framePacer = FramePacer.create(new FramePacer.Callback() {
+            @Override
+            public void onFrame(long frameTimeNanos) {
+                boolean rendered = showLatestFrame();
+                if (frameTimeStats != null) {
+                    frameTimeStats.recordFrame(frameTimeNanos, rendered);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setData(@NonNull float[] data) {
+        renderer.setData(data);
+        invalidate();
+    }
+
+    @Override
+    public void setFrames(@Nullable TripleBuffer frames) {
+        this.frames = frames;
+        updateFramePacer();
+    }
+
+    /**
+     * Shows the latest published frame if it has not been shown yet.
+     *
+     * @return whether a new frame is shown
+     */
+    private boolean showLatestFrame() {
+        float[] data = renderer.getData();
+        if (frames == null || data == null || !frames.acquire()) {
+            return false;
+        }
+        float[] frame = frames.getFrontBuffer();
+        System.arraycopy(frame, 0, data, 0, frame.length);
+        invalidate();
+        return true;
+    }
+
+    private void updateFramePacer() {
+        if (frames != null && attached && getWindowVisibility() == VISIBLE) {
+            framePacer.start();
+        } else if (framePacer.isStarted()) {
+            framePacer.stop();
+            if (frameTimeStats != null) {
+                frameTimeStats.pause();
+            }
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        updateFramePacer();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        attached = false;
+        updateFramePacer();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateFramePacer();
+    }
+
+    @Override
+    public void clear() {
+        renderer.setData(null);
+        invalidate();
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        invalidate();
+    }
+
+    @Override
+    public void setDecimator(@Nullable Decimator decimator) {
+        renderer.setDecimator(decimator);
+        invalidate();
+    }
+
+    @Override
+    public void setLineColor(@ColorInt int color) {
+        renderer.setLineColor(color);
+        invalidate();
+    }
+
+    @Override
+    public void setYRange(float minY, float maxY) {
+        renderer.setYRange(minY, maxY);
+        invalidate();
+    }
+
+    @Override
+    public void setXLabelFormatter(@Nullable ValueFormatter formatter) {
+        renderer.setXLabelFormatter(formatter);
+        invalidate();
+    }
+
+    @Override
+    public void setYLabelFormatter(@Nullable ValueFormatter formatter) {
+        renderer.setYLabelFormatter(formatter);
+        invalidate();
+    }
+
+    @Override
+    public void setDrawGridLines(boolean drawGridLines) {
+        renderer.setDrawGridLines(drawGridLines);
+        invalidate();
+    }
+
+    @Override
+    public void setDrawZeroLine(boolean drawZeroLine) {
+        renderer.setDrawZeroLine(drawZeroLine);
+        invalidate();
+    }
+
+    @Override
+    public void setHighlightEnabled(boolean highlightEnabled) {
+        renderer.setHighlightEnabled(highlightEnabled);
+        invalidate();
+    }
+
+    @Override
+    public void setDescription(@Nullable String description) {
+        renderer.setDescription(description);
+        invalidate();
+    }
+
+    @Override
+    public void setNoDataText(@Nullable String noDataText) {
+        renderer.setNoDataText(noDataText);
+        invalidate();
+    }
+
+    @Override
+    public void setNoDataTextDescription(@Nullable String noDataTextDescription) {
+        renderer.setNoDataTextDescription(noDataTextDescription);
+        invalidate();
+    }
+
+    @Override
+    public void setFrameTimeStats(@Nullable FrameTimeStats frameTimeStats) {
+        this.frameTimeStats = frameTimeStats;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        long startNanos = System.nanoTime();
+        renderer.draw(canvas, getWidth(), getHeight(), getPaddingLeft(), getPaddingTop(),
+                getPaddingRight(), getPaddingBottom());
+        if (frameTimeStats != null) {
+            frameTimeStats.recordDraw(System.nanoTime() - startNanos);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!renderer.isHighlightEnabled()) {
+            return super.onTouchEvent(event);
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                if (renderer.highlight(event.getX())) {
+                    invalidate();
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                performClick();
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+}
@@ -16,29 +16,15 @@
 package com.crcrch.chromatictuner;
 
 import android.os.Bundle;
-import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
+import android.support.v4.content.ContextCompat;
 import com.crcrch.chromatictuner.app.R;
-import com.github.mikephil.charting.charts.LineChart;
-import com.github.mikephil.charting.components.AxisBase;
-import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineDataSet;
-import com.github.mikephil.charting.formatter.AxisValueFormatter;
-import com.github.mikephil.charting.highlight.Highlight;
-import com.github.mikephil.charting.listener.OnChartValueSelectedListener;
 
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.List;
 
 public class PowerSpectrumFragment extends GraphFragment {
     private static final float DEFAULT_MIN_Y = 0;
     private static final float DEFAULT_MAX_Y = 120;
-    private static final float DEFAULT_MIN_X = 0;
-    private static final float DEFAULT_MAX_X = 5000;
     private static final String STATE_R = "r";
     private static final String STATE_MIN_FREQ = "minFreq";
     private double r;
@@ -66,37 +52,24 @@ public class PowerSpectrumFragment extends GraphFragment {
     }
 
     @Override
-    protected void configureGraph(final LineChart graph, LineDataSet series) {
-        series.setDrawCircles(false);
-        series.setColor(R.color.app_primary);
-
-        graph.setOnChartValueSelectedListener(new OnChartValueSelectedListener() {
-            @Override
-            public void onValueSelected(Entry e, Highlight h) {
-                graph.highlightValue(h);
-            }
-
-            @Override
-            public void onNothingSelected() {
-                // no-op
-            }
-        });
-
-        graph.getLegend().setEnabled(false);
-
-        graph.getXAxis().setValueFormatter(new UnLogarithmicValueFormatter(r, minFreq));
-
-        graph.getAxisLeft().setAxisMinValue(DEFAULT_MIN_Y);
-        graph.getAxisLeft().setAxisMaxValue(DEFAULT_MAX_Y);
+    protected void configureGraph(LineGraph graph) {
+        graph.setLineColor(ContextCompat.getColor(getActivity(), R.color.app_primary));
+        graph.setHighlightEnabled(true);
+        graph.setXLabelFormatter(new UnLogarithmicValueFormatter(r, minFreq));
+        graph.setYLabelFormatter(new DecimalValueFormatter());
+        graph.setYRange(DEFAULT_MIN_Y, DEFAULT_MAX_Y);
+    }
 
-        graph.getAxisRight().setAxisMinValue(DEFAULT_MIN_Y);
-        graph.getAxisRight().setAxisMaxValue(DEFAULT_MAX_Y);
+    private static class DecimalValueFormatter implements LineGraph.ValueFormatter {
+        private final DecimalFormat formatter = new DecimalFormat("#.#");
 
-        graph.setVisibleXRangeMaximum(DEFAULT_MAX_X - DEFAULT_MIN_X);
-        graph.moveViewToX(DEFAULT_MIN_X);
+        @Override
+        public String format(float value) {
+            return formatter.format(value);
+        }
     }
 
-    private static class UnLogarithmicValueFormatter implements AxisValueFormatter {
+    private static class UnLogarithmicValueFormatter implements LineGraph.ValueFormatter {
         private static final DecimalFormat formatter = new DecimalFormat("#.##");
         private final double r;
         private final double minFreq;
@@ -107,13 +80,8 @@ public class PowerSpectrumFragment extends GraphFragment {
         }
 
         @Override
-        public String getFormattedValue(float value, AxisBase axis) {
+        public String format(float value) {
             return formatter.format(minFreq * Math.pow(r, value));
         }
-
-        @Override
-        public int getDecimalDigits() {
-            return -1;
-        }
     }
 }
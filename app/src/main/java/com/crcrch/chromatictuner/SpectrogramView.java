@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.View;
+import com.crcrch.chromatictuner.util.FramePacer;
+import com.crcrch.chromatictuner.util.SpectrogramHistory;
+
+import java.util.Arrays;
+
+/**
+ * Shows a {@link SpectrogramHistory} as a waterfall, with frequency increasing to the right
+ * and the newest frame at the top.
+ * <p/>
+ * The whole history fits in the view: when it holds more frames than the view is pixels tall,
+ * each row shows a group of consecutive frames, at the loudest level of each bin in the group,
+ * so that short notes are not lost.
+ * <p/>
+ * Frames are drawn incrementally: the view checks for new frames once per display frame while
+ * it is attached to a visible window, and colors only the rows of the new frames through a
+ * lookup table. The bitmap is used as a ring, so that scrolling moves where it is split instead
+ * of copying its pixels.
+ */
+public class SpectrogramView extends View {
+    /**
+     * The colors of evenly spaced levels, from quiet to loud, which are interpolated for the
+     * levels in between.
+     */
+    private static final int[] COLOR_STOPS = new int[] {
+            0xff000004, 0xff420a68, 0xff932667, 0xffdd513a, 0xfffca50a, 0xfffcffa4
+    };
+    private static final int[] LEVEL_COLORS = createLevelColors();
+
+    private final FramePacer framePacer;
+    private final Paint bitmapPaint = new Paint(); // not filtered, so that bins stay sharp
+    private final Rect src = new Rect();
+    private final RectF dst = new RectF();
+
+    @Nullable
+    private SpectrogramHistory history;
+    private boolean attached;
+
+    @Nullable
+    private Bitmap bitmap;
+    private int[] rowColors;
+    private byte[] frameLevels;
+    private int[] rowLevels;
+    private int framesPerRow;
+    private long numDrawnFrames;
+
+    public SpectrogramView(Context context) {
+        this(context, null);
+    }
+
+    public SpectrogramView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public SpectrogramView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        framePacer = FramePacer.create(new FramePacer.Callback() {
+            @Override
+            public void onFrame(long frameTimeNanos) {
+                if (drawNewFrames()) {
+                    invalidate();
+                }
+            }
+        });
+    }
+
+    private static int[] createLevelColors() {
+        int[] colors = new int[SpectrogramHistory.NUM_LEVELS];
+        int numSegments = COLOR_STOPS.length - 1;
+        for (int level = 0; level < colors.length; level++) {
+            float position = (float) level * numSegments / (colors.length - 1);
+            int segment = Math.min((int) position, numSegments - 1);
+            float t = position - segment;
+            int from = COLOR_STOPS[segment];
+            int to = COLOR_STOPS[segment + 1];
+            colors[level] = Color.rgb(
+                    interpolate(Color.red(from), Color.red(to), t),
+                    interpolate(Color.green(from), Color.green(to), t),
+                    interpolate(Color.blue(from), Color.blue(to), t));
+        }
+        return colors;
+    }
+
+    private static int interpolate(int from, int to, float t) {
+        return Math.round(from + (to - from) * t);
+    }
+
+    /**
+     * Should be called on the UI thread to set the history to show. Frames that are added to
+     * the history afterwards are shown without further calls.
+     *
+     * @param history the history, or null to show nothing
+     */
+    public void setHistory(@Nullable SpectrogramHistory history) {
+        this.history = history;
+        createBitmap();
+        updateFramePacer();
+        invalidate();
+    }
+
+    @Nullable
+    public SpectrogramHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Creates a bitmap with as few frames per row as fit the capacity of the history into the
+     * height of the view, and redraws the frames that the history still holds.
+     */
+    private void createBitmap() {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (history == null || width <= 0 || height <= 0) {
+            releaseBitmap();
+            return;
+        }
+        int frameLength = history.getFrameLength();
+        int capacity = history.getCapacity();
+        framesPerRow = (capacity + height - 1) / height;
+        int numRows = (capacity + framesPerRow - 1) / framesPerRow;
+        if (bitmap == null || bitmap.getWidth() != frameLength
+                || bitmap.getHeight() != numRows) {
+            releaseBitmap();
+            bitmap = Bitmap.createBitmap(frameLength, numRows, Bitmap.Config.ARGB_8888);
+            rowColors = new int[frameLength];
+            frameLevels = new byte[frameLength];
+            rowLevels = new int[frameLength];
+        }
+        bitmap.eraseColor(LEVEL_COLORS[0]);
+        numDrawnFrames = 0;
+        drawNewFrames();
+    }
+
+    private void releaseBitmap() {
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+    }
+
+    /**
+     * Colors the rows of the frames that were added to the history since the last call. The row
+     * of the newest group is recolored as its frames arrive.
+     *
+     * @return whether any rows were colored
+     */
+    private boolean drawNewFrames() {
+        if (history == null || bitmap == null) {
+            return false;
+        }
+        long numFrames = history.getNumFrames();
+        if (numFrames == numDrawnFrames) {
+            return false;
+        }
+        if (numFrames < numDrawnFrames) { // the history was cleared
+            bitmap.eraseColor(LEVEL_COLORS[0]);
+            numDrawnFrames = 0;
+        }
+        int frameLength = history.getFrameLength();
+        // Starts at a group boundary unless the group of the last drawn frame is continued
+        long firstShownGroup = numFrames / framesPerRow - (bitmap.getHeight() - 1);
+        long start = Math.max(numDrawnFrames, Math.max(0, firstShownGroup * framesPerRow));
+        for (long i = start; i < numFrames; i++) {
+            if (i % framesPerRow == 0) {
+                Arrays.fill(rowLevels, 0);
+            }
+            if (!history.copyFrame(i, frameLevels)) {
+                continue; // already overwritten
+            }
+            for (int j = 0; j < frameLength; j++) {
+                rowLevels[j] = Math.max(rowLevels[j], frameLevels[j] & 0xff);
+            }
+            if (i % framesPerRow == framesPerRow - 1 || i == numFrames - 1) {
+                for (int j = 0; j < frameLength; j++) {
+                    rowColors[j] = LEVEL_COLORS[rowLevels[j]];
+                }
+                bitmap.setPixels(rowColors, 0, frameLength, 0, getRow(i), frameLength, 1);
+            }
+        }
+        numDrawnFrames = numFrames;
+        return true;
+    }
+
+    /**
+     * Returns the row of the bitmap that a frame is drawn in. Rows are filled from the bottom
+     * up, so that the rows from the newest group down to the bottom are in order.
+     *
+     * @param frame the index of the frame
+     * @return the row
+     */
+    private int getRow(long frame) {
+        int numRows = bitmap.getHeight();
+        return numRows - 1 - (int) (frame / framesPerRow % numRows);
+    }
+
+    private void updateFramePacer() {
+        if (history != null && attached && getWindowVisibility() == VISIBLE) {
+            framePacer.start();
+        } else {
+            framePacer.stop();
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        updateFramePacer();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        attached = false;
+        updateFramePacer();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateFramePacer();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        createBitmap();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (bitmap == null) {
+            return;
+        }
+        int frameLength = bitmap.getWidth();
+        int numRows = bitmap.getHeight();
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float right = getWidth() - getPaddingRight();
+        float bottom = getHeight() - getPaddingBottom();
+        float rowHeight = (bottom - top) / numRows;
+
+        // The rows from the newest frame to the bottom of the bitmap go on top, followed by the
+        // rows from the top of the bitmap, which hold the oldest frames.
+        int newestRow = numDrawnFrames == 0 ? 0 : getRow(numDrawnFrames - 1);
+        float split = top + (numRows - newestRow) * rowHeight;
+        src.set(0, newestRow, frameLength, numRows);
+        dst.set(left, top, right, split);
+        canvas.drawBitmap(bitmap, src, dst, bitmapPaint);
+        if (newestRow > 0) {
+            src.set(0, 0, frameLength, newestRow);
+            dst.set(left, split, right, bottom);
+            canvas.drawBitmap(bitmap, src, dst, bitmapPaint);
+        }
+    }
+}
@@ -15,14 +15,8 @@
 
 package com.crcrch.chromatictuner;
 
-import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
 import com.crcrch.chromatictuner.app.R;
-import com.github.mikephil.charting.charts.LineChart;
-import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineDataSet;
-
-import java.util.ArrayList;
-import java.util.List;
 
 public class WaveformBeatsFragment extends GraphFragment {
     private static final float DEFAULT_MIN_Y = -1;
@@ -34,29 +28,17 @@ public class WaveformBeatsFragment extends GraphFragment {
     }
 
     @Override
-    protected void configureGraph(LineChart graph, LineDataSet series) {
+    protected void configureGraph(LineGraph graph) {
         graph.setDescription(String.format(
                 getActivity().getString(R.string.graph_description_waveform_beats),
                 referenceFrequency));
 
-        graph.getXAxis().setDrawLabels(false);
-        graph.getXAxis().setDrawGridLines(false);
-
-        graph.getAxisLeft().setDrawLabels(false);
-        graph.getAxisLeft().setDrawGridLines(false);
-        graph.getAxisLeft().setDrawZeroLine(true);
-        graph.getAxisLeft().setAxisMinValue(DEFAULT_MIN_Y);
-        graph.getAxisLeft().setAxisMaxValue(DEFAULT_MAX_Y);
-
-        graph.getAxisRight().setDrawLabels(false);
-        graph.getAxisRight().setDrawGridLines(false);
-        graph.getAxisRight().setDrawZeroLine(true);
-        graph.getAxisRight().setAxisMinValue(DEFAULT_MIN_Y);
-        graph.getAxisRight().setAxisMaxValue(DEFAULT_MAX_Y);
-
-        graph.getLegend().setEnabled(false);
+        graph.setXLabelFormatter(null);
+        graph.setYLabelFormatter(null);
+        graph.setDrawGridLines(false);
+        graph.setDrawZeroLine(true);
+        graph.setYRange(DEFAULT_MIN_Y, DEFAULT_MAX_Y);
 
-        series.setDrawCircles(false);
-        series.setColor(R.color.app_primary);
+        graph.setLineColor(ContextCompat.getColor(getActivity(), R.color.app_primary));
     }
 }
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import android.support.annotation.Nullable;
+import org.jtransforms.fft.FloatFFT_1D;
+import org.jtransforms.utils.CommonUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The sparse spectral kernel of a {@link ConstantQTransform}. Kernels are immutable, so a single
+ * kernel may be shared by any number of transforms on any number of threads.
+ * <p/>
+ * Coefficients whose magnitude falls below a threshold relative to the peak of their constant Q
+ * bin are discarded when the kernel is constructed, so each frame only touches the coefficients
+ * that remain.
+ */
+public final class ConstantQKernel {
+    /**
+     * The version of the kernel construction. This must be incremented whenever a change causes
+     * the same parameters to produce different coefficients, so that stored kernels are rebuilt.
+     */
+    static final int VERSION = 3;
+    private static final int ARRAY_OVERHEAD_BYTES = 16;
+
+    /**
+     * The number of samples of a temporal kernel between which the phasor recurrence is resynced
+     * to exactly computed values.
+     */
+    private static final int PHASOR_RESYNC_INTERVAL = 1024;
+
+    private final double sampleRate;
+    private final double minFrequency;
+    private final double ratio;
+    private final float kernelThreshold;
+    private final boolean halfSpectrum;
+    private final int numSamples;
+    /**
+     * The FFT size that the bandwidth of the lowest bin calls for, which is at most
+     * {@link #numSamples}.
+     */
+    private final int exactFftSize;
+    private final double q;
+
+    /**
+     * The sparse kernel indices. For each {@code k_cq} in {@code [0, N[k_cq] - 1]}, the entry
+     * {@code indices[k_cq]} lists the frequency bins, in increasing order, that have a
+     * coefficient stored in {@link #values}.
+     */
+    final int[][] indices;
+    /**
+     * The sparse kernel values. The real and imaginary parts of the coefficient for frequency bin
+     * {@code indices[k_cq][i]} are given by {@code values[k_cq][2 * i]} and {@code
+     * values[k_cq][2 * i + 1]} respectively.
+     */
+    final float[][] values;
+
+    ConstantQKernel(ConstantQTransform.Builder builder) {
+        double sampleRate = builder.sampleRate;
+        double minFreq = builder.minFreq;
+        double r = builder.r;
+        int numConstantQBins = builder.numConstantQBins;
+        ConstantQTransform.WindowFunction window = builder.window;
+        float kernelThreshold = builder.kernelThreshold;
+
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("non-positive sample rate: " + sampleRate);
+        }
+        if (minFreq <= 0) {
+            throw new IllegalArgumentException("non-positive frequency: " + minFreq);
+        }
+        if (r <= 1) {
+            throw new IllegalArgumentException("ratio must be r" + r);
+        }
+        if (numConstantQBins <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of coefficients: " + numConstantQBins);
+        }
+        if (!(kernelThreshold >= 0 && kernelThreshold < 1)) {
+            throw new IllegalArgumentException(
+                    "kernel threshold not in the range [0, 1): " + kernelThreshold);
+        }
+        this.sampleRate = sampleRate;
+        this.kernelThreshold = kernelThreshold;
+        this.ratio = r;
+        minFrequency = minFreq;
+        halfSpectrum = builder.halfSpectrum;
+
+        double bandwidth = ConstantQTransform.getResolution(minFreq, r);
+        q = minFreq / bandwidth;
+        exactFftSize = (int) (sampleRate / bandwidth);
+        numSamples = builder.fftSizePolicy.getFftSize(exactFftSize);
+
+        indices = new int[numConstantQBins][];
+        values = new float[numConstantQBins][];
+        if (builder.executor == null) {
+            FloatFFT_1D fft = new FloatFFT_1D(numSamples);
+            float[] spectralKernel = new float[2 * numSamples];
+            for (int k = 0; k < numConstantQBins; k++) {
+                computeBin(k, window, fft, spectralKernel);
+            }
+        } else {
+            computeInParallel(window, builder.executor);
+        }
+    }
+
+    /**
+     * Computes the bins of this kernel on the calling thread and on threads of an executor.
+     * Each thread pulls the next bin that has not been started, since bins with longer windows
+     * take longer to compute.
+     *
+     * @param window the window function, which must be safe to call from multiple threads
+     * @param executor the executor
+     */
+    private void computeInParallel(@Nullable ConstantQTransform.WindowFunction window,
+                                   Executor executor) {
+        int numWorkers = Math.min(Runtime.getRuntime().availableProcessors(),
+                indices.length);
+        AtomicInteger nextBin = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(numWorkers - 1);
+
+        for (int i = 0; i < numWorkers - 1; i++) {
+            BinWorker worker = new BinWorker(window, nextBin, failure, done);
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                done.countDown();
+            }
+        }
+        new BinWorker(window, nextBin, failure, null).run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Computes the sparse spectral kernel of one constant Q bin.
+     *
+     * @param k the constant Q bin
+     * @param window the window function to apply. If null, then no windowing is used.
+     * @param fft an FFT of size {@link #numSamples} that is not used by any other thread
+     * @param spectralKernel a scratch array of size {@code 2 * numSamples}
+     */
+    private void computeBin(int k, @Nullable ConstantQTransform.WindowFunction window,
+                            FloatFFT_1D fft, float[] spectralKernel) {
+        Arrays.fill(spectralKernel, 0);
+
+        double fkcq = minFrequency * Math.pow(ratio, k);
+        int windowLength = (int) (q * sampleRate / fkcq);
+
+        float[] windowTable = null;
+        if (window instanceof TabulatedWindow) {
+            windowTable = ((TabulatedWindow) window).getCoefficients(windowLength);
+        }
+
+        // Rotate a unit phasor by the angle step of the bin instead of calling cos and sin for
+        // every sample. The recurrence is computed in double precision and resynced to the exact
+        // phasor every PHASOR_RESYNC_INTERVAL samples, so its drift stays around 1e-13, far
+        // below the float precision of the kernel. The coefficients match those computed with
+        // cos and sin for every sample to within a few float ulps.
+        double step = -2 * Math.PI * fkcq / sampleRate;
+        double stepRe = Math.cos(step);
+        double stepIm = Math.sin(step);
+        double phasorRe = 1;
+        double phasorIm = 0;
+
+        // When the FFT is larger than the lowest bin calls for, the temporal kernel still starts
+        // at offset 0 and the zero padding follows it. Since the spectral kernel correlates
+        // kernel position p with frame sample -p mod n, offset 0 covers the newest samples of
+        // the frame, as with the exact size. Since the coefficients grow with the FFT size, they
+        // are scaled back to the levels of the exact size.
+        double gain = (double) exactFftSize / numSamples;
+
+        for (int j = 0; j < windowLength; j++) {
+            if (j % PHASOR_RESYNC_INTERVAL == 0) {
+                double angle = -2 * Math.PI * fkcq * j / sampleRate;
+                phasorRe = Math.cos(angle);
+                phasorIm = Math.sin(angle);
+            }
+            float wn;
+            if (windowTable != null) {
+                wn = windowTable[j];
+            } else if (window == null) {
+                wn = 1.0f;
+            } else {
+                wn = window.apply(j, windowLength);
+            }
+            spectralKernel[2 * j] = (float) (gain * wn * phasorRe);
+            spectralKernel[2 * j + 1] = (float) (gain * wn * phasorIm);
+
+            double re = phasorRe * stepRe - phasorIm * stepIm;
+            phasorIm = phasorRe * stepIm + phasorIm * stepRe;
+            phasorRe = re;
+        }
+
+        fft.complexForward(spectralKernel);
+        scale(numSamples, spectralKernel);
+        if (halfSpectrum) {
+            foldToHalfSpectrum(spectralKernel);
+            sparsify(spectralKernel, getHalfSpectrumLength(), kernelThreshold, k);
+        } else {
+            sparsify(spectralKernel, numSamples, kernelThreshold, k);
+        }
+    }
+
+    /**
+     * Constructs a kernel from previously computed coefficients.
+     */
+    ConstantQKernel(double sampleRate, double minFrequency, double ratio, float kernelThreshold,
+                    boolean halfSpectrum, int numSamples, int[][] indices, float[][] values) {
+        this.sampleRate = sampleRate;
+        this.minFrequency = minFrequency;
+        this.ratio = ratio;
+        this.kernelThreshold = kernelThreshold;
+        this.halfSpectrum = halfSpectrum;
+        this.numSamples = numSamples;
+        this.indices = indices;
+        this.values = values;
+        q = minFrequency / ConstantQTransform.getResolution(minFrequency, ratio);
+        exactFftSize = ConstantQTransform.getFftSize(sampleRate, minFrequency, ratio);
+    }
+
+    /**
+     * Applies scaling by {@code 1/N} to the first {@code N} elements of an array.
+     *
+     * @param numSamples the FFT size {@code N}
+     * @param a the array
+     */
+    static void scale(int numSamples, float[] a) {
+        CommonUtils.scale(numSamples, 1.0f / numSamples, a, 0, false);
+    }
+
+    /**
+     * Rearranges a full spectral kernel so that its first {@link #getHalfSpectrumLength()}
+     * coefficients are the ones that multiply the non-negative frequencies of a conjugated real
+     * spectrum.
+     * <p/>
+     * For real input, {@code X[N - j]} is the complex conjugate of {@code X[j]}. The temporal
+     * kernel of a bin is a windowed {@code exp(-i * 2 * pi * f_k * t)}, so its spectral kernel is
+     * concentrated at the negative frequency {@code N - f_k * N / sampleRate}, and
+     * {@code sum_j X[j] K[j]} is approximately {@code sum_{j <= N/2} conj(X[j]) K[N - j]}. The
+     * discarded coefficients are the spectral leakage of the kernel into the positive
+     * frequencies, which is small for any bin well below the Nyquist frequency.
+     * <p/>
+     * {@link #scale(int, float[])} only scales the lower half of a complex array, so
+     * {@link ConstantQTransform#realConstantQPowerDbFull(float[], float[], double)} leaves the
+     * dominant coefficients of both spectra unscaled but scales their DC terms twice. The DC
+     * coefficient is scaled once more here so that the half spectrum path produces the same
+     * levels without scaling its input.
+     *
+     * @param spectralKernel the scaled full spectral kernel, which is rearranged in place
+     */
+    private void foldToHalfSpectrum(float[] spectralKernel) {
+        spectralKernel[0] /= numSamples;
+        spectralKernel[1] /= numSamples;
+        for (int j = 1; j < getHalfSpectrumLength(); j++) {
+            spectralKernel[2 * j] = spectralKernel[2 * (numSamples - j)];
+            spectralKernel[2 * j + 1] = spectralKernel[2 * (numSamples - j) + 1];
+        }
+    }
+
+    /**
+     * Stores the coefficients of a dense spectral kernel that are not below the threshold.
+     *
+     * @param spectralKernel the dense spectral kernel of a constant Q bin
+     * @param length the number of complex coefficients in the dense spectral kernel
+     * @param kernelThreshold the threshold relative to the largest magnitude
+     * @param k the constant Q bin
+     */
+    private void sparsify(float[] spectralKernel, int length, float kernelThreshold, int k) {
+        float maxSq = 0;
+        for (int j = 0; j < length; j++) {
+            float re = spectralKernel[2 * j];
+            float im = spectralKernel[2 * j + 1];
+            maxSq = Math.max(maxSq, re * re + im * im);
+        }
+        float minSq = kernelThreshold * kernelThreshold * maxSq;
+
+        int nonZero = 0;
+        for (int j = 0; j < length; j++) {
+            if (isKept(spectralKernel, j, minSq)) {
+                nonZero++;
+            }
+        }
+
+        int[] binIndices = new int[nonZero];
+        float[] binValues = new float[2 * nonZero];
+        int n = 0;
+        for (int j = 0; j < length; j++) {
+            if (isKept(spectralKernel, j, minSq)) {
+                binIndices[n] = j;
+                binValues[2 * n] = spectralKernel[2 * j];
+                binValues[2 * n + 1] = spectralKernel[2 * j + 1];
+                n++;
+            }
+        }
+        indices[k] = binIndices;
+        values[k] = binValues;
+    }
+
+    private static boolean isKept(float[] spectralKernel, int j, float minSq) {
+        float re = spectralKernel[2 * j];
+        float im = spectralKernel[2 * j + 1];
+        float sq = re * re + im * im;
+        return sq > 0 && sq >= minSq;
+    }
+
+    public int getFftSize() {
+        return numSamples;
+    }
+
+    /**
+     * Returns the quality factor of the constant Q bins, the ratio of each bin's frequency to
+     * its bandwidth. Zero-padding the FFT does not change it.
+     *
+     * @return the Q factor
+     */
+    public double getQ() {
+        return q;
+    }
+
+    /**
+     * Returns the spacing in hertz between the frequency bins of the FFT, which is finer than
+     * the bandwidth of the lowest constant Q bin if the FFT is zero-padded.
+     *
+     * @return the FFT resolution
+     * @see ConstantQTransform.FftSizePolicy
+     */
+    public double getFftResolution() {
+        return sampleRate / numSamples;
+    }
+
+    /**
+     * Returns the number of complex coefficients in the non-negative half of the spectrum of
+     * real data, {@code floor(n / 2) + 1} where {@code n} equals the value of
+     * {@link #getFftSize()}.
+     *
+     * @return the length of the half spectrum
+     */
+    int getHalfSpectrumLength() {
+        return numSamples / 2 + 1;
+    }
+
+    /**
+     * Returns whether the spectral kernel only covers the half spectrum of real data.
+     *
+     * @return whether the spectral kernel covers only the half spectrum
+     * @see ConstantQTransform.Builder#setHalfSpectrum(boolean)
+     */
+    public boolean isHalfSpectrum() {
+        return halfSpectrum;
+    }
+
+    public int getNumCoefficients() {
+        return indices.length;
+    }
+
+    /**
+     * Returns the number of spectral kernel coefficients that are stored, summed over all of
+     * the constant Q bins. Each frame performs one complex multiplication per coefficient.
+     *
+     * @return the number of stored kernel coefficients
+     */
+    public int getNumKernelCoefficients() {
+        int n = 0;
+        for (int[] binIndices : indices) {
+            n += binIndices.length;
+        }
+        return n;
+    }
+
+    /**
+     * Estimates the number of bytes of heap memory that the coefficients of this kernel occupy.
+     *
+     * @return the approximate size in bytes
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        for (int k = 0; k < indices.length; k++) {
+            size += ARRAY_OVERHEAD_BYTES + 4L * indices[k].length;
+            size += ARRAY_OVERHEAD_BYTES + 4L * values[k].length;
+        }
+        return size;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public double getRatio() {
+        return ratio;
+    }
+
+    public double getMinFrequency() {
+        return minFrequency;
+    }
+
+    public float getKernelThreshold() {
+        return kernelThreshold;
+    }
+
+    /**
+     * Computes bins with its own FFT instance and scratch array, since the scratch space of
+     * {@link FloatFFT_1D} cannot be shared between threads.
+     */
+    private class BinWorker implements Runnable {
+        @Nullable
+        private final ConstantQTransform.WindowFunction window;
+        private final AtomicInteger nextBin;
+        private final AtomicReference<Throwable> failure;
+        @Nullable
+        private final CountDownLatch done;
+
+        /**
+         * Creates a worker.
+         *
+         * @param window the window function to apply. If null, then no windowing is used.
+         * @param nextBin the next bin to be computed by any worker
+         * @param failure the first exception thrown by any worker
+         * @param done the latch to count down once the worker is finished, or null
+         */
+        BinWorker(@Nullable ConstantQTransform.WindowFunction window, AtomicInteger nextBin,
+                  AtomicReference<Throwable> failure, @Nullable CountDownLatch done) {
+            this.window = window;
+            this.nextBin = nextBin;
+            this.failure = failure;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                FloatFFT_1D fft = new FloatFFT_1D(numSamples);
+                float[] spectralKernel = new float[2 * numSamples];
+                int k;
+                while (failure.get() == null
+                        && (k = nextBin.getAndIncrement()) < indices.length) {
+                    computeBin(k, window, fft, spectralKernel);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+}
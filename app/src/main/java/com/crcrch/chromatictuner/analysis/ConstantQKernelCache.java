@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of spectral kernels, so that analyzers that are recreated with the same
+ * parameters, for example after a rotation or when returning to an activity, share one kernel
+ * instead of rebuilding it. The least recently used kernels are evicted once the total size of
+ * the cached kernels exceeds a memory budget. This class is thread-safe.
+ * <p/>
+ * Kernels with window functions other than a {@link TabulatedWindow} cannot be identified and
+ * are never cached.
+ */
+public final class ConstantQKernelCache {
+    /**
+     * The default memory budget in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE_BYTES = 16 * 1024 * 1024;
+
+    private static final ConstantQKernelCache INSTANCE =
+            new ConstantQKernelCache(DEFAULT_MAX_SIZE_BYTES);
+
+    private final LinkedHashMap<String, ConstantQKernel> kernels =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long maxSizeBytes;
+    private long sizeBytes;
+
+    private ConstantQKernelCache(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public static ConstantQKernelCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached kernel that a builder would compute. If it is not cached, then the
+     * kernel is loaded from the store, or computed if there is no store, and cached unless it
+     * is larger than the memory budget.
+     * <p/>
+     * The kernel is computed on the calling thread without holding the lock of this cache, so
+     * concurrent callers requesting the same uncached kernel may each compute it; only the first
+     * kernel to finish is cached and returned to later callers.
+     *
+     * @param builder the builder of the kernel
+     * @param store the store to load the kernel from on a cache miss, or null
+     * @return the kernel
+     */
+    public ConstantQKernel getKernel(ConstantQTransform.Builder builder,
+                                     @Nullable ConstantQKernelStore store) {
+        String key = builder.getKernelKey();
+        if (key == null) {
+            return store == null ? builder.buildKernel() : store.getKernel(builder);
+        }
+
+        synchronized (this) {
+            ConstantQKernel kernel = kernels.get(key);
+            if (kernel != null) {
+                return kernel;
+            }
+        }
+
+        ConstantQKernel kernel = store == null ? builder.buildKernel() : store.getKernel(builder);
+
+        synchronized (this) {
+            ConstantQKernel existing = kernels.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            // Caching a kernel larger than the budget would only evict every other kernel
+            // and then the kernel itself.
+            if (kernel.getSizeInBytes() > maxSizeBytes) {
+                return kernel;
+            }
+            kernels.put(key, kernel);
+            sizeBytes += kernel.getSizeInBytes();
+            trimToSize(maxSizeBytes);
+        }
+        return kernel;
+    }
+
+    /**
+     * Sets the memory budget, evicting kernels if needed. A single kernel larger than the budget
+     * is not cached.
+     *
+     * @param maxSizeBytes the maximum total size of the cached kernels in bytes
+     */
+    public synchronized void setMaxSizeBytes(long maxSizeBytes) {
+        if (maxSizeBytes < 0) {
+            throw new IllegalArgumentException("negative memory budget: " + maxSizeBytes);
+        }
+        this.maxSizeBytes = maxSizeBytes;
+        trimToSize(maxSizeBytes);
+    }
+
+    public synchronized long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    /**
+     * Returns the total size of the cached kernels.
+     *
+     * @return the size in bytes
+     * @see ConstantQKernel#getSizeInBytes()
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Evicts the least recently used kernels until the total size of the cached kernels is at
+     * most a number of bytes.
+     *
+     * @param size the size in bytes to trim to
+     */
+    public synchronized void trimToSize(long size) {
+        Iterator<Map.Entry<String, ConstantQKernel>> it = kernels.entrySet().iterator();
+        while (sizeBytes > size && it.hasNext()) {
+            sizeBytes -= it.next().getValue().getSizeInBytes();
+            it.remove();
+        }
+    }
+
+    /**
+     * Evicts all of the cached kernels. Kernels that are in use by transforms remain valid.
+     */
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores spectral kernels in files so that they do not have to be recomputed every time a
+ * transform is created. Each file is keyed by the parameters of its kernel, including the window
+ * function, the sample rate, the frequencies, the number of bins and the kernel threshold, and
+ * is loaded back through a memory-mapped {@link FileChannel}. Files are named by the SHA-1
+ * digest of the key, so that different kernels practically never share a file.
+ * <p/>
+ * Kernels with window functions other than a {@link TabulatedWindow} cannot be identified and
+ * are always computed.
+ */
+public class ConstantQKernelStore {
+    private static final int MAGIC = 0x4b514321; // "!CQK" in little-endian order
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+
+    /**
+     * Constructs a store that keeps its files in a directory, such as a subdirectory of
+     * {@link android.content.Context#getCacheDir()}. The directory is created if needed.
+     *
+     * @param directory the directory
+     */
+    public ConstantQKernelStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the kernel that a builder would compute, or computes and stores it if it has not
+     * been stored. Files that cannot be read, are corrupt or were written by an older version
+     * are deleted and replaced.
+     *
+     * @param builder the builder of the kernel
+     * @return the kernel
+     */
+    public ConstantQKernel getKernel(ConstantQTransform.Builder builder) {
+        String key = builder.getKernelKey();
+        if (key == null) {
+            return builder.buildKernel();
+        }
+
+        File file = getFile(key);
+        ConstantQKernel kernel = null;
+        if (file.exists()) {
+            try {
+                kernel = load(file, key);
+            } catch (IOException e) {
+                // fall through and recompute the kernel
+            }
+            if (kernel == null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        if (kernel == null) {
+            kernel = builder.buildKernel();
+            try {
+                save(file, key, kernel);
+            } catch (IOException e) {
+                // the kernel will be recomputed next time
+            }
+        }
+        return kernel;
+    }
+
+    private File getFile(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-1 is not supported");
+        }
+        StringBuilder name = new StringBuilder("cq-kernel-");
+        for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return new File(directory, name.append(".bin").toString());
+    }
+
+    /**
+     * Loads a kernel from a file.
+     *
+     * @param file the file
+     * @param key the expected key of the kernel
+     * @return the kernel, or null if the file holds a different kernel or is not valid. Counts
+     * are checked against the size of the file before anything is allocated.
+     * @throws IOException if the file cannot be read
+     */
+    @Nullable
+    private static ConstantQKernel load(File file, String key) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int keyLength = buffer.getInt();
+            if (keyLength < 0 || keyLength > buffer.remaining()) {
+                return null;
+            }
+            byte[] storedKey = new byte[keyLength];
+            buffer.get(storedKey);
+            if (!key.equals(new String(storedKey, UTF_8))) {
+                return null;
+            }
+
+            double sampleRate = buffer.getDouble();
+            double minFrequency = buffer.getDouble();
+            double ratio = buffer.getDouble();
+            float kernelThreshold = buffer.getFloat();
+            boolean halfSpectrum = buffer.getInt() != 0;
+            int numSamples = buffer.getInt();
+            int numBins = buffer.getInt();
+            if (numSamples <= 0 || numBins < 0 || 4L * numBins > buffer.remaining()) {
+                return null;
+            }
+
+            // Each coefficient takes an index and a complex value
+            int[] counts = new int[numBins];
+            long numCoefficients = 0;
+            for (int k = 0; k < numBins; k++) {
+                counts[k] = buffer.getInt();
+                if (counts[k] < 0) {
+                    return null;
+                }
+                numCoefficients += counts[k];
+            }
+            if (3 * 4 * numCoefficients != buffer.remaining()) {
+                return null;
+            }
+
+            int[][] indices = new int[numBins][];
+            float[][] values = new float[numBins][];
+            for (int k = 0; k < numBins; k++) {
+                indices[k] = new int[counts[k]];
+                values[k] = new float[2 * counts[k]];
+            }
+            for (int k = 0; k < numBins; k++) {
+                buffer.asIntBuffer().get(indices[k]);
+                buffer.position(buffer.position() + 4 * indices[k].length);
+                for (int index : indices[k]) {
+                    if (index < 0 || index >= numSamples) {
+                        return null;
+                    }
+                }
+            }
+            for (int k = 0; k < numBins; k++) {
+                buffer.asFloatBuffer().get(values[k]);
+                buffer.position(buffer.position() + 4 * values[k].length);
+            }
+
+            return new ConstantQKernel(sampleRate, minFrequency, ratio, kernelThreshold,
+                    halfSpectrum, numSamples, indices, values);
+        } catch (RuntimeException e) {
+            // Any other inconsistency in a stale or corrupt file
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Saves a kernel to a file. The kernel is written to a temporary file first, so that a
+     * partially written file is never loaded.
+     *
+     * @param file the file
+     * @param key the key of the kernel
+     * @param kernel the kernel
+     * @throws IOException if the file cannot be written
+     */
+    private void save(File file, String key, ConstantQKernel kernel) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create directory " + directory);
+        }
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int numBins = kernel.getNumCoefficients();
+        long numKernelCoefficients = kernel.getNumKernelCoefficients();
+        long size = 3 * 4 + keyBytes.length + 3 * 8 + 4 * 4 + 4 * numBins
+                + 3 * 4 * numKernelCoefficients;
+
+        File tmp = new File(directory, file.getName() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(keyBytes.length);
+            buffer.put(keyBytes);
+
+            buffer.putDouble(kernel.getSampleRate());
+            buffer.putDouble(kernel.getMinFrequency());
+            buffer.putDouble(kernel.getRatio());
+            buffer.putFloat(kernel.getKernelThreshold());
+            buffer.putInt(kernel.isHalfSpectrum() ? 1 : 0);
+            buffer.putInt(kernel.getFftSize());
+            buffer.putInt(numBins);
+
+            for (int k = 0; k < numBins; k++) {
+                buffer.putInt(kernel.indices[k].length);
+            }
+            for (int k = 0; k < numBins; k++) {
+                buffer.asIntBuffer().put(kernel.indices[k]);
+                buffer.position(buffer.position() + 4 * kernel.indices[k].length);
+            }
+            for (int k = 0; k < numBins; k++) {
+                buffer.asFloatBuffer().put(kernel.values[k]);
+                buffer.position(buffer.position() + 4 * kernel.values[k].length);
+            }
+            buffer.force();
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("cannot rename " + tmp + " to " + file);
+        }
+    }
+}
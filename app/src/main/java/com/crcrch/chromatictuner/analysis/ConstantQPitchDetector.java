@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+/**
+ * Estimates the pitch of a constant Q power spectrum in decibels. Since the bins are spaced
+ * geometrically, the {@code h}th harmonic of every bin lies the same number of bins,
+ * {@code round(log(h) / log(r))}, above it. Each bin is scored by the weighted sum of the levels
+ * of its harmonics above a noise floor, the best scoring bin is moved to the nearest peak, and
+ * the peak is interpolated with a parabola in log frequency.
+ * <p/>
+ * Detection does not allocate. Instances are not thread-safe.
+ */
+public class ConstantQPitchDetector {
+    public static final int DEFAULT_NUM_HARMONICS = 5;
+    public static final float DEFAULT_DYNAMIC_RANGE_DB = 60;
+
+    /**
+     * The weight of each harmonic relative to the one below it, so that a candidate an octave
+     * below the true pitch, whose even harmonics line up with every harmonic of the true pitch,
+     * scores lower than the true pitch.
+     */
+    private static final float HARMONIC_WEIGHT_DECAY = 0.8f;
+
+    private final double minFrequency;
+    private final double ratio;
+    private final int numCoefficients;
+    private final int[] harmonicShifts;
+    private final float[] harmonicWeights;
+
+    private double a4;
+    private float dynamicRangeDb = DEFAULT_DYNAMIC_RANGE_DB;
+    private float minLevelDb = Float.NEGATIVE_INFINITY;
+
+    /**
+     * Creates a detector for spectra with the constant Q bins
+     * {@code {minFrequency, minFrequency * r, ..., minFrequency * r^(numCoefficients - 1)}}.
+     *
+     * @param minFrequency the frequency of the lowest bin
+     * @param ratio the geometric ratio between neighboring bins
+     * @param numCoefficients the number of bins
+     * @param numHarmonics the number of harmonics to sum, including the fundamental
+     * @param a4 the frequency of A4 that notes are tuned to
+     */
+    public ConstantQPitchDetector(double minFrequency, double ratio, int numCoefficients,
+                                  int numHarmonics, double a4) {
+        if (minFrequency <= 0) {
+            throw new IllegalArgumentException("non-positive frequency: " + minFrequency);
+        }
+        if (ratio <= 1) {
+            throw new IllegalArgumentException("ratio must be greater than 1: " + ratio);
+        }
+        if (numCoefficients <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of coefficients: " + numCoefficients);
+        }
+        if (numHarmonics <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of harmonics: " + numHarmonics);
+        }
+        this.minFrequency = minFrequency;
+        this.ratio = ratio;
+        this.numCoefficients = numCoefficients;
+        setA4(a4);
+
+        harmonicShifts = new int[numHarmonics];
+        harmonicWeights = new float[numHarmonics];
+        float weight = 1;
+        for (int h = 0; h < numHarmonics; h++) {
+            harmonicShifts[h] = (int) Math.round(Math.log(h + 1) / Math.log(ratio));
+            harmonicWeights[h] = weight;
+            weight *= HARMONIC_WEIGHT_DECAY;
+        }
+    }
+
+    /**
+     * Creates a detector for the output of a stream.
+     *
+     * @param stream the stream whose spectra will be detected
+     * @param a4 the frequency of A4 that notes are tuned to
+     */
+    public ConstantQPitchDetector(ConstantQStream stream, double a4) {
+        this(stream.getMinFrequency(), stream.getRatio(), stream.getNumCoefficients(),
+                DEFAULT_NUM_HARMONICS, a4);
+    }
+
+    public void setA4(double a4) {
+        if (a4 <= 0) {
+            throw new IllegalArgumentException("non-positive A4 frequency: " + a4);
+        }
+        this.a4 = a4;
+    }
+
+    /**
+     * @param dynamicRangeDb how far below the loudest bin the noise floor lies. Levels below the
+     * noise floor do not count towards the harmonic sums.
+     */
+    public void setDynamicRangeDb(float dynamicRangeDb) {
+        if (!(dynamicRangeDb > 0)) {
+            throw new IllegalArgumentException("non-positive dynamic range: " + dynamicRangeDb);
+        }
+        this.dynamicRangeDb = dynamicRangeDb;
+    }
+
+    /**
+     * @param minLevelDb the level that the loudest bin must reach for a pitch to be detected
+     */
+    public void setMinLevelDb(float minLevelDb) {
+        this.minLevelDb = minLevelDb;
+    }
+
+    /**
+     * Estimates the pitch of a spectrum.
+     *
+     * @param spectrumDb the power spectrum in decibels, of size at least the number of bins
+     * @param result the estimate to write into. Its strength is the harmonic sum of the detected
+     * bin in decibels above the noise floor.
+     * @return whether a pitch was detected
+     */
+    public boolean detect(float[] spectrumDb, PitchEstimate result) {
+        if (spectrumDb.length < numCoefficients) {
+            throw new IllegalArgumentException(
+                    "length of spectrum must be at least the number of coefficients");
+        }
+        float maxDb = Float.NEGATIVE_INFINITY;
+        for (int k = 0; k < numCoefficients; k++) {
+            if (spectrumDb[k] > maxDb) {
+                maxDb = spectrumDb[k];
+            }
+        }
+        if (!(maxDb >= minLevelDb) || Float.isInfinite(maxDb)) {
+            result.clear();
+            return false;
+        }
+        float floorDb = maxDb - dynamicRangeDb;
+
+        int best = -1;
+        float bestScore = 0;
+        for (int k = 0; k < numCoefficients; k++) {
+            if (!(spectrumDb[k] > floorDb)) {
+                continue;
+            }
+            float score = 0;
+            for (int h = 0; h < harmonicShifts.length; h++) {
+                int j = k + harmonicShifts[h];
+                if (j >= numCoefficients) {
+                    break;
+                }
+                float level = spectrumDb[j] - floorDb;
+                if (level > 0) {
+                    score += harmonicWeights[h] * level;
+                }
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = k;
+            }
+        }
+        if (best < 0) {
+            result.clear();
+            return false;
+        }
+
+        int peak = best;
+        if (best > 0 && spectrumDb[best - 1] > spectrumDb[peak]) {
+            peak = best - 1;
+        }
+        if (best + 1 < numCoefficients && spectrumDb[best + 1] > spectrumDb[peak]) {
+            peak = best + 1;
+        }
+        double offset = 0;
+        if (peak > 0 && peak + 1 < numCoefficients) {
+            double a = spectrumDb[peak - 1];
+            double b = spectrumDb[peak];
+            double c = spectrumDb[peak + 1];
+            double curvature = a - 2 * b + c;
+            if (curvature < 0 && !Double.isInfinite(a) && !Double.isInfinite(c)) {
+                offset = Math.max(-0.5, Math.min(0.5, 0.5 * (a - c) / curvature));
+            }
+        }
+        result.set(minFrequency * Math.pow(ratio, peak + offset), a4, bestScore);
+        return true;
+    }
+}
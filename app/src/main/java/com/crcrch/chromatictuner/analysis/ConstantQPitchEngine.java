@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+/**
+ * Estimates pitch from the spectra of a {@link ConstantQStream} with a
+ * {@link ConstantQPitchDetector}. A new estimate is computed whenever the stream completes a
+ * frame, and {@link #detect(PitchEstimate)} returns the most recent one.
+ * <p/>
+ * Detection does not allocate. Instances are not thread-safe.
+ */
+public class ConstantQPitchEngine implements PitchEngine {
+    private final ConstantQStream stream;
+    private final ConstantQPitchDetector detector;
+    private final double p0;
+    private final float[] spectrumDb;
+    private final PitchEstimate latest = new PitchEstimate();
+
+    /**
+     * Creates an engine over a stream.
+     *
+     * @param stream the stream to compute spectra with
+     * @param a4 the frequency of A4 that notes are tuned to
+     * @param p0 the reference power level of the spectra
+     */
+    public ConstantQPitchEngine(ConstantQStream stream, double a4, double p0) {
+        this.stream = stream;
+        this.p0 = p0;
+        detector = new ConstantQPitchDetector(stream, a4);
+        spectrumDb = new float[stream.getNumCoefficients()];
+    }
+
+    public ConstantQPitchDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * Returns the spectrum of the most recent frame in decibels.
+     *
+     * @return the spectrum, which is overwritten by the next frame
+     */
+    public float[] getSpectrumDb() {
+        return spectrumDb;
+    }
+
+    @Override
+    public void write(float[] samples, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            offset += stream.write(samples, offset, end - offset);
+            if (stream.isFrameReady()) {
+                stream.realConstantQ(spectrumDb, ConstantQTransform.OutputMode.FAST_POWER_DB,
+                        p0);
+                detector.detect(spectrumDb, latest);
+            }
+        }
+    }
+
+    @Override
+    public boolean detect(PitchEstimate result) {
+        result.copyFrom(latest);
+        return result.isPitched();
+    }
+
+    @Override
+    public void reset() {
+        stream.reset();
+        latest.clear();
+    }
+
+    @Override
+    public int getWindowLength() {
+        return stream.getWindowLength();
+    }
+}
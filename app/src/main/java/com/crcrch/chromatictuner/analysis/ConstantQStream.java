@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+/**
+ * Computes constant Q power spectra from a stream of samples. The constant Q bins are
+ * {@code {f, f * r, f * r^2, ..., f * r^(n - 1)}} where {@code f} is the value of
+ * {@link #getMinFrequency()}, {@code r} is the value of {@link #getRatio()} and {@code n} is the
+ * value of {@link #getNumCoefficients()}.
+ * <p/>
+ * Samples may be written in blocks of any size:
+ * <pre>{@code
+ * int offset = 0;
+ * while (offset < length) {
+ *     offset += stream.write(samples, offset, length - offset);
+ *     if (stream.isFrameReady()) {
+ *         stream.realConstantQPowerDb(powerSpectrum, p0);
+ *     }
+ * }
+ * }</pre>
+ */
+public interface ConstantQStream {
+    /**
+     * Appends samples to the stream. Writing stops early at the sample that completes the next
+     * frame, so that no frame is skipped; the remaining samples should be written after
+     * {@link #realConstantQ(float[], ConstantQTransform.OutputMode, double)} is called.
+     *
+     * @param samples the array containing the samples
+     * @param offset the index of the first sample to write
+     * @param length the number of samples available to write
+     * @return the number of samples that were written
+     */
+    int write(float[] samples, int offset, int length);
+
+    /**
+     * Returns whether enough samples have been written to compute the next frame.
+     *
+     * @return whether a frame is ready
+     */
+    boolean isFrameReady();
+
+    /**
+     * Computes the power spectrum of the frame that is ready.
+     *
+     * @param output the output array of size at least {@link #getNumCoefficients()}
+     * @param p0 the reference power level
+     * @throws IllegalStateException if no frame is ready
+     */
+    void realConstantQPowerDb(float[] output, double p0);
+
+    /**
+     * Computes the constant Q transform of the frame that is ready.
+     *
+     * @param output the output array of size at least {@link #getNumCoefficients()}, or twice
+     * that for {@link ConstantQTransform.OutputMode#COMPLEX}
+     * @param mode the values to output
+     * @param p0 the reference power level, which is only used by the decibel output modes
+     * @throws IllegalStateException if no frame is ready
+     */
+    void realConstantQ(float[] output, ConstantQTransform.OutputMode mode, double p0);
+
+    /**
+     * Discards the samples that have been written.
+     */
+    void reset();
+
+    int getHopSize();
+
+    /**
+     * Returns the number of most recent samples that each frame depends on.
+     *
+     * @return the window length in samples
+     */
+    int getWindowLength();
+
+    int getNumCoefficients();
+
+    double getRatio();
+
+    double getMinFrequency();
+}
@@ -17,8 +17,14 @@ package com.crcrch.chromatictuner.analysis;
 
 
 import android.support.annotation.Nullable;
+import com.crcrch.chromatictuner.util.FastLog;
+import com.crcrch.chromatictuner.util.MiscMath;
+import com.crcrch.chromatictuner.util.WorkerPool;
 import org.jtransforms.fft.FloatFFT_1D;
-import org.jtransforms.utils.CommonUtils;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * Computes the constant Q transform for {@code float} data points. Uses the kernel method of
@@ -29,20 +35,44 @@ import org.jtransforms.utils.CommonUtils;
  * transform. <em>The Journal of the Acoustical Society of America</em> 92, 5 (Nov. 1992),
  * 2698-2701.
  * DOI:<a href="http://dx.doi.org/10.1121/1.404385">http://dx.doi.org/10.1121/1.404385</a>
+ * <p/>
+ * The spectral kernel is stored sparsely in a {@link ConstantQKernel}, which may be shared
+ * between transforms. Instances of this class are not thread-safe.
  */
 public class ConstantQTransform {
+    /**
+     * A kernel threshold that discards the spectral kernel coefficients lying more than 40 dB
+     * below the peak of their constant Q bin.
+     */
+    public static final float RECOMMENDED_KERNEL_THRESHOLD = 0.01f;
+
+    /**
+     * The minimum number of spectral kernel coefficients that each thread must multiply per
+     * frame for a parallel evaluation to pay off.
+     *
+     * @see #setWorkerPool(WorkerPool)
+     */
+    public static final int MIN_PARALLEL_KERNEL_COEFFICIENTS = 8192;
 
     /**
-     * The kernel. For each {@code k_cq} in {@code [0, N[k_cq] - 1]}, the entry {@code kernel[k_cq]}
-     * is a lookup table of frequency bin to real/imaginary parts, given by {@code
-     * kernel[k_cq][i]} and {@code kernel[k_cq][i + 1]} respectively for the {@code i}-th
-     * coefficient.
+     * The number of frames whose spectra are multiplied by each kernel row together in
+     * {@link #realConstantQPowerDb(float[], int, int, int, float[][], double)}.
      */
-    private final float[][] spectralKernel;
+    private static final int BATCH_BLOCK_SIZE = 8;
+
+    private final ConstantQKernel kernel;
+    private final int[][] kernelIndices;
+    private final float[][] kernelValues;
     private final FloatFFT_1D fft;
     private final int numSamples;
-    private final double ratio;
-    private final double minFrequency;
+    @Nullable
+    private ParallelMultiply parallelMultiply;
+    private float[] frame;
+    private FloatBuffer frameSource;
+    private FloatBuffer frameSourceView;
+    private float[][] batchSpectra;
+    private float[] batchLastRe;
+    private float[] batchLastIm;
 
     /**
      * Constructs an instance to compute the constant Q transform. The constant Q bins that will
@@ -57,56 +87,67 @@ public class ConstantQTransform {
      */
     public ConstantQTransform(@Nullable WindowFunction window,
                               double sampleRate, double minFreq, double r, int numConstantQBins) {
-        if (sampleRate <= 0) {
-            throw new IllegalArgumentException("non-positive sample rate: " + sampleRate);
-        }
-        if (minFreq <= 0) {
-            throw new IllegalArgumentException("non-positive frequency: " + minFreq);
-        }
-        if (r <= 1) {
-            throw new IllegalArgumentException("ratio must be r" + r);
-        }
-        if (numConstantQBins <= 0) {
-            throw new IllegalArgumentException(
-                    "non-positive number of coefficients: " + numConstantQBins);
-        }
-        this.ratio = r;
-        minFrequency = minFreq;
+        this(new Builder(sampleRate, minFreq, r, numConstantQBins).setWindow(window));
+    }
 
-        double bandwidth = ConstantQTransform.getResolution(minFreq, r);
-        double q = minFreq / bandwidth;
+    /**
+     * Constructs an instance to compute the constant Q transform with a sparse spectral kernel.
+     * The constant Q bins that will be computed are
+     * {@code {minFreq, minFreq * r, minFreq * r^2, ..., minFreq * r^(numConstantQBins - 1)}}.
+     *
+     * @param window the window function to apply. If null, then no windowing is used.
+     * @param sampleRate the sample rate
+     * @param minFreq the minimum frequency to compute
+     * @param r the geometric ratio between neighboring frequencies
+     * @param numConstantQBins the number of coefficients to compute
+     * @param kernelThreshold the spectral kernel coefficients whose magnitude is less than this
+     * fraction of the largest magnitude in their constant Q bin are discarded. If zero, then
+     * only coefficients that are exactly zero are discarded.
+     * @see #RECOMMENDED_KERNEL_THRESHOLD
+     */
+    public ConstantQTransform(@Nullable WindowFunction window,
+                              double sampleRate, double minFreq, double r, int numConstantQBins,
+                              float kernelThreshold) {
+        this(new Builder(sampleRate, minFreq, r, numConstantQBins).setWindow(window)
+                .setKernelThreshold(kernelThreshold));
+    }
 
-        numSamples = (int) (sampleRate / bandwidth);
+    /**
+     * Constructs an instance to compute the constant Q transform with a previously computed
+     * kernel.
+     *
+     * @param kernel the spectral kernel
+     */
+    public ConstantQTransform(ConstantQKernel kernel) {
+        this.kernel = kernel;
+        kernelIndices = kernel.indices;
+        kernelValues = kernel.values;
+        numSamples = kernel.getFftSize();
         fft = new FloatFFT_1D(numSamples);
+    }
 
-        spectralKernel = new float[numConstantQBins][];
-        for (int i = 0; i < spectralKernel.length; i++) {
-            spectralKernel[i] = new float[2 * numSamples];
-
-            double fkcq = minFreq * Math.pow(r, i);
-            int windowLength = (int) (q * sampleRate / fkcq);
-
-            for (int j = 0; j < windowLength; j++) {
-                double angle = -2 * Math.PI * fkcq * j / sampleRate;
-                float wn;
-                if (window == null) {
-                    wn = 1.0f;
-                } else {
-                    wn = window.apply(j, windowLength);
-                }
-                spectralKernel[i][2 * j] = (float) (wn * Math.cos(angle));
-                spectralKernel[i][2 * j + 1] = (float) (wn * Math.sin(angle));
-            }
-
-            fft.complexForward(spectralKernel[i]);
-            scale(spectralKernel[i]);
-        }
+    private ConstantQTransform(Builder builder) {
+        this(builder.buildKernel());
     }
 
     public static int getFftSize(double sampleRate, double minFreq, double ratio) {
         return (int) (sampleRate / getResolution(minFreq, ratio));
     }
 
+    /**
+     * Returns the FFT size of a transform whose kernel is built with a size policy.
+     *
+     * @param sampleRate the sample rate
+     * @param minFreq the minimum frequency to compute
+     * @param ratio the geometric ratio between neighboring frequencies
+     * @param policy the FFT size policy
+     * @return the FFT size
+     */
+    public static int getFftSize(double sampleRate, double minFreq, double ratio,
+                                 FftSizePolicy policy) {
+        return policy.getFftSize(getFftSize(sampleRate, minFreq, ratio));
+    }
+
     public static double getResolution(double minFreq, double ratio) {
         return minFreq * ratio - minFreq;
     }
@@ -117,15 +158,67 @@ public class ConstantQTransform {
      * @param a the array
      */
     private void scale(float[] a) {
-        CommonUtils.scale(numSamples, 1.0f / numSamples, a, 0, false);
+        ConstantQKernel.scale(numSamples, a);
     }
 
     public int getFftSize() {
         return numSamples;
     }
 
+    /**
+     * @return the quality factor of the constant Q bins
+     * @see ConstantQKernel#getQ()
+     */
+    public double getQ() {
+        return kernel.getQ();
+    }
+
+    /**
+     * @return the spacing in hertz between the frequency bins of the FFT
+     * @see ConstantQKernel#getFftResolution()
+     */
+    public double getFftResolution() {
+        return kernel.getFftResolution();
+    }
+
+    /**
+     * Returns whether this instance was built with a half spectrum kernel. If so, then
+     * {@link #realConstantQPowerDb(float[], float[], double)} must be used instead of
+     * {@link #realConstantQPowerDbFull(float[], float[], double)}.
+     *
+     * @return whether the spectral kernel covers only the half spectrum
+     */
+    public boolean isHalfSpectrum() {
+        return kernel.isHalfSpectrum();
+    }
+
     public int getNumCoefficients() {
-        return spectralKernel.length;
+        return kernelIndices.length;
+    }
+
+    /**
+     * Returns the number of values that each frame outputs.
+     *
+     * @param mode the values to output
+     * @return twice the number of coefficients for {@link OutputMode#COMPLEX}, otherwise the
+     * number of coefficients
+     */
+    public int getOutputLength(OutputMode mode) {
+        return mode == OutputMode.COMPLEX ? 2 * getNumCoefficients() : getNumCoefficients();
+    }
+
+    /**
+     * Returns the number of spectral kernel coefficients that are stored, summed over all of
+     * the constant Q bins. Each frame performs one complex multiplication per coefficient.
+     *
+     * @return the number of stored kernel coefficients
+     */
+    public int getNumKernelCoefficients() {
+        return kernel.getNumKernelCoefficients();
+    }
+
+    public ConstantQKernel getKernel() {
+        return kernel;
     }
 
     /**
@@ -135,45 +228,806 @@ public class ConstantQTransform {
      * with the real data points, where {@code n} equals the value of {@link #getFftSize()}
      * @param output the output array of size exactly {@link #getNumCoefficients()}.
      * @param p0 the reference power level
+     * @throws IllegalStateException if this instance was built with a half spectrum kernel
      */
     public void realConstantQPowerDbFull(float[] input, float[] output, double p0) {
+        realConstantQFull(input, output, OutputMode.POWER_DB, p0);
+    }
+
+    /**
+     * Computes a constant Q transform on real data.
+     *
+     * @param input an array of size exactly {@code 2n} with the first {@code n} elements filled
+     * with the real data points, where {@code n} equals the value of {@link #getFftSize()}
+     * @param output the output array of size at least {@link #getOutputLength(OutputMode)}
+     * @param mode the values to output
+     * @param p0 the reference power level, which is only used by the decibel output modes
+     * @throws IllegalStateException if this instance was built with a half spectrum kernel
+     */
+    public void realConstantQFull(float[] input, float[] output, OutputMode mode, double p0) {
+        if (isHalfSpectrum()) {
+            throw new IllegalStateException("kernel only covers the half spectrum");
+        }
         if (input.length % 2 != 0) {
             throw new IllegalArgumentException("length of input array is not a multiple of 2");
         }
-        if (output.length < getNumCoefficients()) {
+        if (output.length < getOutputLength(mode)) {
             throw new IllegalArgumentException(
-                    "length of output array be at least the number of constant Q coefficients");
+                    "length of output array must be at least " + getOutputLength(mode));
         }
         fft.realForwardFull(input);
         scale(input);
-        for (int i = 0; i < output.length; i++) {
+        multiply(input, output, mode, p0, 0, 0, -1);
+    }
+
+    /**
+     * Computes a power spectrum of a constant Q transform on real data using the half spectrum.
+     * The results agree with {@link #realConstantQPowerDbFull(float[], float[], double)} up to
+     * the spectral leakage described in {@link Builder#setHalfSpectrum(boolean)}.
+     *
+     * @param input an array of size at least {@code n} with the first {@code n} elements filled
+     * with the real data points, where {@code n} equals the value of {@link #getFftSize()}. The
+     * contents are overwritten by the Fourier transform.
+     * @param output the output array of size exactly {@link #getNumCoefficients()}.
+     * @param p0 the reference power level
+     * @throws IllegalStateException if this instance was not built with a half spectrum kernel
+     */
+    public void realConstantQPowerDb(float[] input, float[] output, double p0) {
+        realConstantQ(input, output, OutputMode.POWER_DB, p0);
+    }
+
+    /**
+     * Computes a constant Q transform on real data using the half spectrum. The results agree
+     * with {@link #realConstantQFull(float[], float[], OutputMode, double)} up to the spectral
+     * leakage described in {@link Builder#setHalfSpectrum(boolean)}.
+     *
+     * @param input an array of size at least {@code n} with the first {@code n} elements filled
+     * with the real data points, where {@code n} equals the value of {@link #getFftSize()}. The
+     * contents are overwritten by the Fourier transform.
+     * @param output the output array of size at least {@link #getOutputLength(OutputMode)}
+     * @param mode the values to output
+     * @param p0 the reference power level, which is only used by the decibel output modes
+     * @throws IllegalStateException if this instance was not built with a half spectrum kernel
+     */
+    public void realConstantQ(float[] input, float[] output, OutputMode mode, double p0) {
+        if (!isHalfSpectrum()) {
+            throw new IllegalStateException("kernel does not cover only the half spectrum");
+        }
+        if (input.length < numSamples) {
+            throw new IllegalArgumentException(
+                    "length of input array must be at least the FFT size");
+        }
+        if (output.length < getOutputLength(mode)) {
+            throw new IllegalArgumentException(
+                    "length of output array must be at least " + getOutputLength(mode));
+        }
+        fft.realForward(input);
+
+        // In the packed layout of realForward, input[1] holds either the real part of the
+        // Nyquist coefficient (even n) or the imaginary part of the last coefficient (odd n).
+        // Pull it out so that the DC coefficient reads as input[0] + i * input[1] like the rest.
+        int last = kernel.getHalfSpectrumLength() - 1;
+        float lastRe;
+        float lastIm;
+        if (numSamples % 2 == 0) {
+            lastRe = input[1];
+            lastIm = 0;
+        } else {
+            lastRe = input[numSamples - 1];
+            lastIm = input[1];
+        }
+        input[1] = 0;
+        multiply(input, output, mode, p0, lastRe, lastIm, last);
+    }
+
+    /**
+     * Computes a constant Q transform of {@link #getFftSize()} samples read from a circular
+     * buffer. The samples are copied into an internal array before the Fourier transform, so
+     * the source is not modified. Works with both half and full spectrum kernels.
+     *
+     * @param source the circular buffer, of size at least {@link #getFftSize()}
+     * @param offset the index of the first sample of the frame. The frame wraps around to the
+     * start of {@code source} if it runs past the end.
+     * @param output the output array of size at least {@link #getOutputLength(OutputMode)}
+     * @param mode the values to output
+     * @param p0 the reference power level, which is only used by the decibel output modes
+     */
+    public void realConstantQ(float[] source, int offset, float[] output, OutputMode mode,
+                              double p0) {
+        if (source.length < numSamples) {
+            throw new IllegalArgumentException(
+                    "length of source array must be at least the FFT size");
+        }
+        if (offset < 0 || offset >= source.length) {
+            throw new ArrayIndexOutOfBoundsException("offset " + offset + " out of bounds");
+        }
+        float[] frame = getFrame();
+        int tail = Math.min(numSamples, source.length - offset);
+        System.arraycopy(source, offset, frame, 0, tail);
+        System.arraycopy(source, 0, frame, tail, numSamples - tail);
+        transformFrame(frame, output, mode, p0);
+    }
+
+    /**
+     * Computes a constant Q transform of the next {@link #getFftSize()} samples of a buffer,
+     * which may be direct. The samples are copied into an internal array before the Fourier
+     * transform, and neither the contents nor the position of the source are modified. Works
+     * with both half and full spectrum kernels.
+     * <p/>
+     * A view of the most recent source is kept, so passing the same buffer every frame does
+     * not allocate.
+     *
+     * @param source the buffer, with at least {@link #getFftSize()} samples remaining
+     * @param output the output array of size at least {@link #getOutputLength(OutputMode)}
+     * @param mode the values to output
+     * @param p0 the reference power level, which is only used by the decibel output modes
+     */
+    public void realConstantQ(FloatBuffer source, float[] output, OutputMode mode, double p0) {
+        if (source.remaining() < numSamples) {
+            throw new IllegalArgumentException(
+                    "source buffer must have at least the FFT size remaining");
+        }
+        if (source != frameSource) {
+            frameSource = source;
+            frameSourceView = source.duplicate();
+        }
+        frameSourceView.limit(source.limit());
+        frameSourceView.position(source.position());
+        float[] frame = getFrame();
+        frameSourceView.get(frame, 0, numSamples);
+        transformFrame(frame, output, mode, p0);
+    }
+
+    private float[] getFrame() {
+        if (frame == null) {
+            frame = new float[isHalfSpectrum() ? numSamples : 2 * numSamples];
+        }
+        return frame;
+    }
+
+    private void transformFrame(float[] frame, float[] output, OutputMode mode, double p0) {
+        if (isHalfSpectrum()) {
+            realConstantQ(frame, output, mode, p0);
+        } else {
+            realConstantQFull(frame, output, mode, p0);
+        }
+    }
+
+    /**
+     * Computes the power spectra of many evenly spaced frames of a recording. The frames are
+     * transformed in blocks, and each row of the spectral kernel is applied to every frame of a
+     * block before moving on to the next, so that the row is read from memory once per block
+     * instead of once per frame. Unlike the single frame methods, the input is not modified.
+     * Works with both half and full spectrum kernels.
+     *
+     * @param signal the real data points
+     * @param offset the index in {@code signal} of the first sample of the first frame
+     * @param hopSize the number of samples between the starts of consecutive frames
+     * @param numFrames the number of frames to compute
+     * @param output the output matrix, where row {@code f} receives the
+     * {@link #getNumCoefficients()} coefficients of frame {@code f}
+     * @param p0 the reference power level
+     */
+    public void realConstantQPowerDb(float[] signal, int offset, int hopSize, int numFrames,
+                                     float[][] output, double p0) {
+        realConstantQ(signal, offset, hopSize, numFrames, output, OutputMode.POWER_DB, p0);
+    }
+
+    /**
+     * Computes the constant Q transforms of many evenly spaced frames of a recording, as in
+     * {@link #realConstantQPowerDb(float[], int, int, int, float[][], double)}.
+     *
+     * @param signal the real data points
+     * @param offset the index in {@code signal} of the first sample of the first frame
+     * @param hopSize the number of samples between the starts of consecutive frames
+     * @param numFrames the number of frames to compute
+     * @param output the output matrix, where row {@code f} receives the
+     * {@link #getOutputLength(OutputMode)} values of frame {@code f}
+     * @param mode the values to output
+     * @param p0 the reference power level, which is only used by the decibel output modes
+     */
+    public void realConstantQ(float[] signal, int offset, int hopSize, int numFrames,
+                              float[][] output, OutputMode mode, double p0) {
+        if (hopSize <= 0) {
+            throw new IllegalArgumentException("non-positive hop size: " + hopSize);
+        }
+        if (numFrames < 0 || output.length < numFrames) {
+            throw new IllegalArgumentException(
+                    "output matrix must have a row for each of the " + numFrames + " frames");
+        }
+        if (numFrames == 0) {
+            return;
+        }
+        if (offset < 0 || offset + (long) (numFrames - 1) * hopSize + numSamples > signal.length) {
+            throw new ArrayIndexOutOfBoundsException("frames out of bounds of signal");
+        }
+        for (int f = 0; f < numFrames; f++) {
+            if (output[f].length < getOutputLength(mode)) {
+                throw new IllegalArgumentException(
+                        "length of output row must be at least " + getOutputLength(mode));
+            }
+        }
+
+        boolean halfSpectrum = isHalfSpectrum();
+        if (batchSpectra == null) {
+            batchSpectra = new float[BATCH_BLOCK_SIZE][halfSpectrum ? numSamples : 2 * numSamples];
+            batchLastRe = new float[BATCH_BLOCK_SIZE];
+            batchLastIm = new float[BATCH_BLOCK_SIZE];
+        }
+        int last = halfSpectrum ? kernel.getHalfSpectrumLength() - 1 : -1;
+
+        for (int start = 0; start < numFrames; start += BATCH_BLOCK_SIZE) {
+            int blockSize = Math.min(BATCH_BLOCK_SIZE, numFrames - start);
+            for (int b = 0; b < blockSize; b++) {
+                float[] spectrum = batchSpectra[b];
+                System.arraycopy(signal, offset + (start + b) * hopSize, spectrum, 0, numSamples);
+                if (halfSpectrum) {
+                    fft.realForward(spectrum);
+                    if (numSamples % 2 == 0) {
+                        batchLastRe[b] = spectrum[1];
+                        batchLastIm[b] = 0;
+                    } else {
+                        batchLastRe[b] = spectrum[numSamples - 1];
+                        batchLastIm[b] = spectrum[1];
+                    }
+                    spectrum[1] = 0;
+                } else {
+                    Arrays.fill(spectrum, numSamples, spectrum.length, 0);
+                    fft.realForwardFull(spectrum);
+                    scale(spectrum);
+                }
+            }
+            multiplyBlock(blockSize, last, output, start, mode, p0);
+        }
+    }
+
+    /**
+     * Applies each row of the spectral kernel to every spectrum of a block of frames.
+     *
+     * @param blockSize the number of spectra in {@link #batchSpectra} to use
+     * @param last the index of the last coefficient of a half spectrum, or -1 for a full
+     * spectrum
+     * @param output the output matrix
+     * @param start the row of the output matrix for the first spectrum
+     * @param mode the values to output
+     * @param p0 the reference power level
+     */
+    private void multiplyBlock(int blockSize, int last, float[][] output, int start,
+                               OutputMode mode, double p0) {
+        for (int i = 0; i < getNumCoefficients(); i++) {
+            int[] indices = kernelIndices[i];
+            float[] values = kernelValues[i];
+
+            int end = indices.length;
+            boolean hasLast = last >= 0 && end > 0 && indices[end - 1] == last;
+            if (hasLast) {
+                end--;
+            }
+
+            for (int b = 0; b < blockSize; b++) {
+                float[] spectrum = batchSpectra[b];
+                float cqRe = 0;
+                float cqIm = 0;
+                if (last < 0) {
+                    for (int k = 0; k < end; k++) {
+                        int j = indices[k];
+                        float xRe = spectrum[2 * j];
+                        float xIm = spectrum[2 * j + 1];
+                        float kRe = values[2 * k];
+                        float kIm = values[2 * k + 1];
+                        cqRe += xRe * kRe - xIm * kIm;
+                        cqIm += xRe * kIm + xIm * kRe;
+                    }
+                } else {
+                    if (hasLast) {
+                        float kRe = values[2 * end];
+                        float kIm = values[2 * end + 1];
+                        cqRe = batchLastRe[b] * kRe + batchLastIm[b] * kIm;
+                        cqIm = batchLastRe[b] * kIm - batchLastIm[b] * kRe;
+                    }
+                    for (int k = 0; k < end; k++) {
+                        int j = indices[k];
+                        float xRe = spectrum[2 * j];
+                        float xIm = spectrum[2 * j + 1];
+                        float kRe = values[2 * k];
+                        float kIm = values[2 * k + 1];
+                        cqRe += xRe * kRe + xIm * kIm;
+                        cqIm += xRe * kIm - xIm * kRe;
+                    }
+                }
+                store(output[start + b], i, cqRe, cqIm, mode);
+            }
+        }
+        for (int b = 0; b < blockSize; b++) {
+            convertPower(output[start + b], 0, getNumCoefficients(), mode, p0);
+        }
+    }
+
+    /**
+     * Multiplies the spectrum by the spectral kernel, splitting the bins between the threads of
+     * the worker pool if one has been set and the kernel is large enough.
+     *
+     * @param spectrum the spectrum, with the DC coefficient at index 0
+     * @param output the output array
+     * @param mode the values to output
+     * @param p0 the reference power level
+     * @param lastRe the real part of the last coefficient of a half spectrum
+     * @param lastIm the imaginary part of the last coefficient of a half spectrum
+     * @param last the index of the last coefficient of a half spectrum, or -1 for a full
+     * spectrum
+     */
+    private void multiply(float[] spectrum, float[] output, OutputMode mode, double p0,
+                          float lastRe, float lastIm, int last) {
+        if (parallelMultiply == null) {
+            multiplyBins(spectrum, output, mode, p0, lastRe, lastIm, last,
+                    0, getNumCoefficients());
+        } else {
+            parallelMultiply.execute(spectrum, output, mode, p0, lastRe, lastIm, last);
+        }
+    }
+
+    /**
+     * Computes a range of constant Q bins from the spectrum.
+     *
+     * @param spectrum the spectrum, with the DC coefficient at index 0
+     * @param output the output array
+     * @param mode the values to output
+     * @param p0 the reference power level
+     * @param lastRe the real part of the last coefficient of a half spectrum
+     * @param lastIm the imaginary part of the last coefficient of a half spectrum
+     * @param last the index of the last coefficient of a half spectrum, or -1 for a full
+     * spectrum
+     * @param from the first bin to compute
+     * @param to the bin after the last bin to compute
+     */
+    private void multiplyBins(float[] spectrum, float[] output, OutputMode mode, double p0,
+                              float lastRe, float lastIm, int last, int from, int to) {
+        if (last < 0) {
+            multiplyFullBins(spectrum, output, mode, from, to);
+        } else {
+            multiplyHalfBins(spectrum, output, mode, lastRe, lastIm, last, from, to);
+        }
+        convertPower(output, from, to, mode, p0);
+    }
+
+    private void multiplyFullBins(float[] spectrum, float[] output, OutputMode mode,
+                                  int from, int to) {
+        for (int i = from; i < to; i++) {
             // Compute the real and imaginary parts of the ith constant Q coefficient.
             float cqRe = 0;
             float cqIm = 0;
 
-            float[] kernel = spectralKernel[i];
+            int[] indices = kernelIndices[i];
+            float[] values = kernelValues[i];
 
-            for (int j = 0; j < input.length / 2; j++) {
-                float xRe = input[2 * j];
-                float xIm = input[2 * j + 1];
-                float kRe = kernel[2 * j];
-                float kIm = kernel[2 * j + 1];
+            for (int k = 0; k < indices.length; k++) {
+                int j = indices[k];
+                float xRe = spectrum[2 * j];
+                float xIm = spectrum[2 * j + 1];
+                float kRe = values[2 * k];
+                float kIm = values[2 * k + 1];
 
                 // Do the complex multiplication in terms of real and imaginary parts
                 cqRe += xRe * kRe - xIm * kIm;
                 cqIm += xRe * kIm + xIm * kRe;
             }
-            float sq = cqRe * cqRe + cqIm * cqIm;
-            output[i] = (float) (10 * Math.log10(sq / p0));
+            store(output, i, cqRe, cqIm, mode);
         }
     }
 
+    private void multiplyHalfBins(float[] spectrum, float[] output, OutputMode mode,
+                                  float lastRe, float lastIm, int last, int from, int to) {
+        for (int i = from; i < to; i++) {
+            // Compute the real and imaginary parts of the ith constant Q coefficient.
+            float cqRe = 0;
+            float cqIm = 0;
+
+            int[] indices = kernelIndices[i];
+            float[] values = kernelValues[i];
+
+            int end = indices.length;
+            if (end > 0 && indices[end - 1] == last) {
+                end--;
+                float kRe = values[2 * end];
+                float kIm = values[2 * end + 1];
+                cqRe = lastRe * kRe + lastIm * kIm;
+                cqIm = lastRe * kIm - lastIm * kRe;
+            }
+
+            for (int k = 0; k < end; k++) {
+                int j = indices[k];
+                float xRe = spectrum[2 * j];
+                float xIm = spectrum[2 * j + 1];
+                float kRe = values[2 * k];
+                float kIm = values[2 * k + 1];
+
+                // Multiply the kernel by the complex conjugate of the spectrum
+                cqRe += xRe * kRe + xIm * kIm;
+                cqIm += xRe * kIm - xIm * kRe;
+            }
+            store(output, i, cqRe, cqIm, mode);
+        }
+    }
+
+    /**
+     * Stores a constant Q coefficient, or its power if the output mode is not
+     * {@link OutputMode#COMPLEX}.
+     *
+     * @param output the output array
+     * @param i the constant Q bin
+     * @param cqRe the real part of the coefficient
+     * @param cqIm the imaginary part of the coefficient
+     * @param mode the values to output
+     */
+    static void store(float[] output, int i, float cqRe, float cqIm, OutputMode mode) {
+        if (mode == OutputMode.COMPLEX) {
+            output[2 * i] = cqRe;
+            output[2 * i + 1] = cqIm;
+        } else {
+            output[i] = cqRe * cqRe + cqIm * cqIm;
+        }
+    }
+
+    /**
+     * Converts the powers stored by {@link #store(float[], int, float, float, OutputMode)} to
+     * the output mode in a separate pass.
+     *
+     * @param output the output array
+     * @param from the first bin to convert
+     * @param to the bin after the last bin to convert
+     * @param mode the values to output
+     * @param p0 the reference power level
+     */
+    static void convertPower(float[] output, int from, int to, OutputMode mode,
+                             double p0) {
+        switch (mode) {
+            case MAGNITUDE:
+                for (int i = from; i < to; i++) {
+                    output[i] = (float) Math.sqrt(output[i]);
+                }
+                break;
+            case POWER_DB:
+                for (int i = from; i < to; i++) {
+                    output[i] = (float) (10 * Math.log10(output[i] / p0));
+                }
+                break;
+            case FAST_POWER_DB:
+                FastLog.powerToDb(output, from, to, p0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Sets a worker pool to multiply the spectrum by the spectral kernel in parallel. The bins
+     * are split into ranges with about the same number of kernel coefficients, but only if each
+     * range gets at least {@link #MIN_PARALLEL_KERNEL_COEFFICIENTS} coefficients, since waking up
+     * the workers costs more than multiplying a small kernel. The Fourier transform itself is
+     * still computed by the calling thread.
+     *
+     * @param workerPool the worker pool, or null to compute on the calling thread only
+     * @return whether frames will be computed in parallel
+     */
+    public boolean setWorkerPool(@Nullable WorkerPool workerPool) {
+        parallelMultiply = null;
+        if (workerPool == null) {
+            return false;
+        }
+        int numRanges = (int) Math.min(workerPool.getParallelism(),
+                (long) getNumKernelCoefficients() / MIN_PARALLEL_KERNEL_COEFFICIENTS);
+        if (numRanges < 2) {
+            return false;
+        }
+        parallelMultiply = new ParallelMultiply(workerPool, numRanges);
+        return true;
+    }
+
+    /**
+     * Returns whether frames are computed in parallel.
+     *
+     * @return whether a worker pool is used
+     * @see #setWorkerPool(WorkerPool)
+     */
+    public boolean isParallel() {
+        return parallelMultiply != null;
+    }
+
     public double getRatio() {
-        return ratio;
+        return kernel.getRatio();
     }
 
     public double getMinFrequency() {
-        return minFrequency;
+        return kernel.getMinFrequency();
+    }
+
+    /**
+     * The values that a transform outputs for each constant Q bin.
+     */
+    public enum OutputMode {
+        /**
+         * The complex coefficients, with the real and imaginary parts of bin {@code i} at
+         * indices {@code 2 * i} and {@code 2 * i + 1}.
+         */
+        COMPLEX,
+        /**
+         * The magnitudes of the coefficients.
+         */
+        MAGNITUDE,
+        /**
+         * The squared magnitudes of the coefficients.
+         */
+        POWER,
+        /**
+         * The power level in decibels relative to a reference power level {@code p0}, that is,
+         * {@code 10 log10(power / p0)}.
+         */
+        POWER_DB,
+        /**
+         * The power level in decibels like {@link #POWER_DB}, approximated by a table lookup
+         * with an error of less than 0.0001 dB.
+         *
+         * @see FastLog
+         */
+        FAST_POWER_DB
+    }
+
+    /**
+     * Chooses the FFT size of a transform. {@link FloatFFT_1D} is fastest for powers of two,
+     * nearly as fast for sizes whose only prime factors are 2, 3 and 5, and falls back to
+     * Bluestein's algorithm for other sizes, which is several times slower.
+     */
+    public enum FftSizePolicy {
+        /**
+         * The size that the bandwidth of the lowest bin calls for.
+         */
+        EXACT,
+        /**
+         * The smallest power of two at least the exact size, which is at most twice as large.
+         */
+        POWER_OF_TWO,
+        /**
+         * The smallest number of the form {@code 2^a 3^b 5^c} at least the exact size, which is
+         * usually within a few percent of it.
+         */
+        SMOOTH;
+
+        /**
+         * Returns the FFT size for this policy.
+         *
+         * @param exactSize the size that the bandwidth of the lowest bin calls for
+         * @return the FFT size, which is at least {@code exactSize}
+         */
+        public int getFftSize(int exactSize) {
+            if (exactSize <= 0) {
+                throw new IllegalArgumentException("non-positive FFT size: " + exactSize);
+            }
+            switch (this) {
+                case POWER_OF_TWO:
+                    return MiscMath.toIntExact(nextPowerOfTwo(exactSize));
+                case SMOOTH:
+                    long best = nextPowerOfTwo(exactSize);
+                    for (long p5 = 1; p5 < best; p5 *= 5) {
+                        for (long p35 = p5; p35 < best; p35 *= 3) {
+                            long size = p35;
+                            while (size < exactSize) {
+                                size *= 2;
+                            }
+                            best = Math.min(best, size);
+                        }
+                    }
+                    return MiscMath.toIntExact(best);
+                default:
+                    return exactSize;
+            }
+        }
+
+        private static long nextPowerOfTwo(int n) {
+            return n == 1 ? 1 : Long.highestOneBit(n - 1) << 1;
+        }
+    }
+
+    /**
+     * Splits the multiplication by the spectral kernel into ranges of bins. The arguments of the
+     * current frame are kept in fields, which the worker pool publishes to its threads, so that
+     * nothing is allocated per frame.
+     */
+    private class ParallelMultiply implements WorkerPool.Task {
+        private final WorkerPool workerPool;
+        /**
+         * The bins that start each range, followed by the number of bins.
+         */
+        private final int[] rangeStarts;
+
+        private float[] spectrum;
+        private float[] output;
+        private OutputMode mode;
+        private double p0;
+        private float lastRe;
+        private float lastIm;
+        private int last;
+
+        ParallelMultiply(WorkerPool workerPool, int numRanges) {
+            this.workerPool = workerPool;
+            rangeStarts = new int[numRanges + 1];
+            long total = getNumKernelCoefficients();
+            long sum = 0;
+            int range = 1;
+            for (int i = 0; i < kernelIndices.length && range < numRanges; i++) {
+                sum += kernelIndices[i].length;
+                while (range < numRanges && sum * numRanges >= total * range) {
+                    rangeStarts[range++] = i + 1;
+                }
+            }
+            while (range <= numRanges) {
+                rangeStarts[range++] = kernelIndices.length;
+            }
+        }
+
+        void execute(float[] spectrum, float[] output, OutputMode mode, double p0,
+                     float lastRe, float lastIm, int last) {
+            this.spectrum = spectrum;
+            this.output = output;
+            this.mode = mode;
+            this.p0 = p0;
+            this.lastRe = lastRe;
+            this.lastIm = lastIm;
+            this.last = last;
+            try {
+                workerPool.execute(this, rangeStarts.length - 1);
+            } finally {
+                this.spectrum = null;
+                this.output = null;
+            }
+        }
+
+        @Override
+        public void run(int index) {
+            multiplyBins(spectrum, output, mode, p0, lastRe, lastIm, last,
+                    rangeStarts[index], rangeStarts[index + 1]);
+        }
+    }
+
+    /**
+     * Builds {@link ConstantQTransform} instances with options beyond those of the constructors.
+     */
+    public static class Builder {
+        final double sampleRate;
+        final double minFreq;
+        final double r;
+        final int numConstantQBins;
+        WindowFunction window;
+        float kernelThreshold;
+        boolean halfSpectrum;
+        FftSizePolicy fftSizePolicy = FftSizePolicy.EXACT;
+        Executor executor;
+
+        /**
+         * Creates a builder for a transform with the constant Q bins
+         * {@code {minFreq, minFreq * r, minFreq * r^2, ..., minFreq * r^(numConstantQBins - 1)}}.
+         *
+         * @param sampleRate the sample rate
+         * @param minFreq the minimum frequency to compute
+         * @param r the geometric ratio between neighboring frequencies
+         * @param numConstantQBins the number of coefficients to compute
+         */
+        public Builder(double sampleRate, double minFreq, double r, int numConstantQBins) {
+            this.sampleRate = sampleRate;
+            this.minFreq = minFreq;
+            this.r = r;
+            this.numConstantQBins = numConstantQBins;
+        }
+
+        /**
+         * @param window the window function to apply. If null, then no windowing is used.
+         * @return this builder
+         */
+        public Builder setWindow(@Nullable WindowFunction window) {
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * @param kernelThreshold the spectral kernel coefficients whose magnitude is less than
+         * this fraction of the largest magnitude in their constant Q bin are discarded. If zero,
+         * then only coefficients that are exactly zero are discarded.
+         * @return this builder
+         * @see #RECOMMENDED_KERNEL_THRESHOLD
+         */
+        public Builder setKernelThreshold(float kernelThreshold) {
+            this.kernelThreshold = kernelThreshold;
+            return this;
+        }
+
+        /**
+         * Sets whether to keep only the half of the spectral kernel that multiplies the
+         * non-negative frequencies of real input. A half spectrum transform uses
+         * {@link FloatFFT_1D#realForward(float[])} instead of
+         * {@link FloatFFT_1D#realForwardFull(float[])}, takes an input array of size {@code n}
+         * instead of {@code 2n}, and roughly halves the kernel memory and the work per frame.
+         * The contribution of the other half is folded in through conjugate symmetry; only the
+         * leakage of each temporal kernel into the positive frequencies is dropped.
+         *
+         * @param halfSpectrum whether to use a half spectrum kernel
+         * @return this builder
+         * @see #realConstantQPowerDb(float[], float[], double)
+         */
+        public Builder setHalfSpectrum(boolean halfSpectrum) {
+            this.halfSpectrum = halfSpectrum;
+            return this;
+        }
+
+        /**
+         * Sets how the FFT size is chosen from the size that the bandwidth of the lowest bin
+         * calls for. A larger size zero-pads the frame before the temporal kernels, which keeps
+         * the Q factor, the covered samples and the output levels of the exact size.
+         *
+         * @param fftSizePolicy the FFT size policy
+         * @return this builder
+         */
+        public Builder setFftSizePolicy(FftSizePolicy fftSizePolicy) {
+            if (fftSizePolicy == null) {
+                throw new IllegalArgumentException("null FFT size policy");
+            }
+            this.fftSizePolicy = fftSizePolicy;
+            return this;
+        }
+
+        /**
+         * Sets an executor to compute the spectral kernel in parallel. The bins are spread over
+         * up to one task per available processor, each with its own FFT instance, and the
+         * calling thread computes bins as well while it waits. The window function must be safe
+         * to call from multiple threads.
+         *
+         * @param executor the executor to run tasks on. If null, then the kernel is computed on
+         * the calling thread only.
+         * @return this builder
+         */
+        public Builder setExecutor(@Nullable Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Returns a string identifying the spectral kernel that this builder computes, or null
+         * if the kernel cannot be identified because it uses a window function other than a
+         * {@link TabulatedWindow}.
+         *
+         * @return the kernel key, or null
+         */
+        @Nullable
+        String getKernelKey() {
+            String windowName;
+            if (window == null) {
+                windowName = "none";
+            } else if (window instanceof TabulatedWindow) {
+                windowName = ((TabulatedWindow) window).getName();
+            } else {
+                return null;
+            }
+            return "v" + ConstantQKernel.VERSION
+                    + " window=" + windowName
+                    + " sampleRate=" + Double.doubleToLongBits(sampleRate)
+                    + " minFreq=" + Double.doubleToLongBits(minFreq)
+                    + " r=" + Double.doubleToLongBits(r)
+                    + " numBins=" + numConstantQBins
+                    + " threshold=" + Float.floatToIntBits(kernelThreshold)
+                    + " halfSpectrum=" + halfSpectrum
+                    + " fftSize=" + fftSizePolicy;
+        }
+
+        /**
+         * Computes the spectral kernel without allocating the buffers of a transform.
+         *
+         * @return the spectral kernel
+         */
+        public ConstantQKernel buildKernel() {
+            return new ConstantQKernel(this);
+        }
+
+        public ConstantQTransform build() {
+            return new ConstantQTransform(this);
+        }
     }
 
     public interface WindowFunction {
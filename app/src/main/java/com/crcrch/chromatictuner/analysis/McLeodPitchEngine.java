@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.Arrays;
+
+/**
+ * Estimates pitch in the time domain with the normalized square difference function (NSDF) of
+ * McLeod and Wyvill, which only needs a window of a little over two periods of the lowest
+ * frequency instead of the long windows of a constant Q transform with fine resolution at low
+ * frequencies. The autocorrelation is computed with an FFT.
+ * <p/>
+ * Philip McLeod and Geoff Wyvill. A smarter way to find pitch. In <em>Proceedings of the
+ * International Computer Music Conference</em> (ICMC 2005), 138-141.
+ * <p/>
+ * Detection does not allocate. Instances are not thread-safe.
+ */
+public class McLeodPitchEngine implements PitchEngine {
+    /**
+     * The number of periods of the lowest frequency in a window.
+     */
+    private static final double PERIODS_PER_WINDOW = 2.5;
+
+    /**
+     * The fraction of the highest NSDF maximum that the first key maximum must reach to be
+     * chosen, which avoids picking a multiple of the period.
+     */
+    private static final float KEY_MAXIMUM_THRESHOLD = 0.9f;
+
+    public static final float DEFAULT_MIN_CLARITY = 0.6f;
+
+    private final double sampleRate;
+    private final int minLag;
+    private final int maxLag;
+    private final int windowLength;
+    private final float[] history;
+    private final float[] buffer;
+    private final float[] nsdf;
+    private final FloatFFT_1D fft;
+
+    private double a4;
+    private float minClarity = DEFAULT_MIN_CLARITY;
+    private float minRms;
+    private int writeIndex;
+    private int numWritten;
+
+    /**
+     * Creates an engine for a range of frequencies.
+     *
+     * @param sampleRate the sample rate
+     * @param minFrequency the lowest frequency to detect
+     * @param maxFrequency the highest frequency to detect
+     * @param a4 the frequency of A4 that notes are tuned to
+     */
+    public McLeodPitchEngine(double sampleRate, double minFrequency, double maxFrequency,
+                             double a4) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("non-positive sample rate: " + sampleRate);
+        }
+        if (!(minFrequency > 0 && minFrequency < maxFrequency)) {
+            throw new IllegalArgumentException(
+                    "invalid frequency range: " + minFrequency + " to " + maxFrequency);
+        }
+        if (maxFrequency >= sampleRate / 2) {
+            throw new IllegalArgumentException(
+                    "maximum frequency exceeds the Nyquist frequency: " + maxFrequency);
+        }
+        this.sampleRate = sampleRate;
+        setA4(a4);
+        minLag = Math.max(2, (int) Math.floor(sampleRate / maxFrequency));
+        maxLag = (int) Math.ceil(sampleRate / minFrequency);
+        windowLength = (int) Math.ceil(PERIODS_PER_WINDOW * maxLag);
+
+        // Zero-padding to at least twice the window length makes the circular autocorrelation
+        // of the FFT equal to the linear one.
+        int fftSize = Integer.highestOneBit(2 * windowLength - 1) << 1;
+        history = new float[windowLength];
+        buffer = new float[fftSize];
+        nsdf = new float[maxLag + 2];
+        fft = new FloatFFT_1D(fftSize);
+    }
+
+    public void setA4(double a4) {
+        if (a4 <= 0) {
+            throw new IllegalArgumentException("non-positive A4 frequency: " + a4);
+        }
+        this.a4 = a4;
+    }
+
+    /**
+     * @param minClarity the NSDF value in {@code (0, 1]} that the chosen maximum must reach for
+     * a pitch to be detected. Higher values reject noisier signals.
+     */
+    public void setMinClarity(float minClarity) {
+        if (!(minClarity > 0 && minClarity <= 1)) {
+            throw new IllegalArgumentException("clarity not in the range (0, 1]: " + minClarity);
+        }
+        this.minClarity = minClarity;
+    }
+
+    /**
+     * @param minRms the root mean square that a window must reach for a pitch to be detected
+     */
+    public void setMinRms(float minRms) {
+        this.minRms = minRms;
+    }
+
+    @Override
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    @Override
+    public void write(float[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds");
+        }
+        if (length > windowLength) {
+            offset += length - windowLength;
+            length = windowLength;
+        }
+        int n = Math.min(length, windowLength - writeIndex);
+        System.arraycopy(samples, offset, history, writeIndex, n);
+        System.arraycopy(samples, offset + n, history, 0, length - n);
+        writeIndex = (writeIndex + length) % windowLength;
+        numWritten = (int) Math.min(windowLength, (long) numWritten + length);
+    }
+
+    @Override
+    public void reset() {
+        writeIndex = 0;
+        numWritten = 0;
+    }
+
+    /**
+     * Estimates the pitch of the most recent {@link #getWindowLength()} samples. The strength of
+     * the estimate is the clarity, the NSDF value at the detected period.
+     *
+     * @param result the estimate to write into
+     * @return whether a pitch was detected
+     */
+    @Override
+    public boolean detect(PitchEstimate result) {
+        if (numWritten < windowLength) {
+            result.clear();
+            return false;
+        }
+        int tail = windowLength - writeIndex;
+        System.arraycopy(history, writeIndex, buffer, 0, tail);
+        System.arraycopy(history, 0, buffer, tail, writeIndex);
+        Arrays.fill(buffer, windowLength, buffer.length, 0);
+
+        double energy = 0;
+        for (int i = 0; i < windowLength; i++) {
+            energy += buffer[i] * buffer[i];
+        }
+        if (energy == 0 || Math.sqrt(energy / windowLength) < minRms) {
+            result.clear();
+            return false;
+        }
+
+        // m(tau) = sum over j < W - tau of x[j]^2 + x[j + tau]^2, updated from m(tau - 1).
+        // It must be computed before the buffer is overwritten by the FFT.
+        double m = 2 * energy;
+        nsdf[0] = 1;
+        for (int tau = 1; tau < nsdf.length; tau++) {
+            float a = buffer[tau - 1];
+            float b = buffer[windowLength - tau];
+            m -= a * a + b * b;
+            nsdf[tau] = (float) m;
+        }
+
+        autocorrelate();
+        for (int tau = 1; tau < nsdf.length; tau++) {
+            nsdf[tau] = nsdf[tau] > 0 ? 2 * buffer[tau] / nsdf[tau] : 0;
+        }
+        return pickPeak(result);
+    }
+
+    /**
+     * Replaces the zero-padded window in {@link #buffer} with its autocorrelation.
+     */
+    private void autocorrelate() {
+        fft.realForward(buffer);
+        // In the packed layout, buffer[0] and buffer[1] are the real DC and Nyquist terms.
+        buffer[0] *= buffer[0];
+        buffer[1] *= buffer[1];
+        for (int i = 2; i < buffer.length; i += 2) {
+            float re = buffer[i];
+            float im = buffer[i + 1];
+            buffer[i] = re * re + im * im;
+            buffer[i + 1] = 0;
+        }
+        fft.realInverse(buffer, true);
+    }
+
+    /**
+     * Chooses the first key maximum, the highest NSDF value between each positive zero crossing
+     * and the next negative one, that is close to the highest key maximum.
+     */
+    private boolean pickPeak(PitchEstimate result) {
+        float highest = 0;
+        int tau = 1;
+        // Skip the lobe around lag 0.
+        while (tau <= maxLag && nsdf[tau] > 0) {
+            tau++;
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            float threshold = KEY_MAXIMUM_THRESHOLD * highest;
+            int t = tau;
+            while (t <= maxLag) {
+                while (t <= maxLag && nsdf[t] <= 0) {
+                    t++;
+                }
+                int best = -1;
+                while (t <= maxLag && nsdf[t] > 0) {
+                    if (best < 0 || nsdf[t] > nsdf[best]) {
+                        best = t;
+                    }
+                    t++;
+                }
+                if (best < minLag) {
+                    continue;
+                }
+                if (pass == 0) {
+                    highest = Math.max(highest, nsdf[best]);
+                } else if (nsdf[best] >= threshold) {
+                    return setResult(best, result);
+                }
+            }
+            if (highest < minClarity) {
+                break;
+            }
+        }
+        result.clear();
+        return false;
+    }
+
+    private boolean setResult(int peak, PitchEstimate result) {
+        double a = nsdf[peak - 1];
+        double b = nsdf[peak];
+        double c = nsdf[peak + 1];
+        double curvature = a - 2 * b + c;
+        double offset = 0;
+        double clarity = b;
+        if (curvature < 0) {
+            offset = Math.max(-0.5, Math.min(0.5, 0.5 * (a - c) / curvature));
+            clarity = b - 0.25 * (a - c) * offset;
+        }
+        if (clarity < minClarity) {
+            result.clear();
+            return false;
+        }
+        result.set(sampleRate / (peak + offset), a4, clarity);
+        return true;
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import android.support.annotation.Nullable;
+import com.crcrch.chromatictuner.util.MiscMath;
+
+import java.util.Arrays;
+
+/**
+ * Computes the constant Q transform one octave at a time, in the style of Schörkhuber and
+ * Klapuri [2010]. A single kernel for the highest octave is computed at the full sample rate.
+ * Each lower octave is obtained by low-pass filtering and decimating the signal of the octave
+ * above it by 2 and applying the same kernel again, so the FFT size and the kernel memory depend
+ * only on the number of bins per octave, and the cost of a frame grows with the number of octaves
+ * instead of with {@code sampleRate / minFreq}.
+ * <p/>
+ * Each decimation stage delays its octave by {@link #HALF_BAND_DELAY} samples at its input rate,
+ * so lower octaves lag slightly behind higher ones. The decimation filter is flat only up to
+ * {@link #HALF_BAND_PASSBAND_EDGE} times its input rate, so when there is more than one octave,
+ * the highest bin of the kernel must lie below {@code 2 * HALF_BAND_PASSBAND_EDGE} times the
+ * sample rate, which {@link #fitsPassband} checks. The levels of each octave are offset to
+ * agree with those of a {@link ConstantQTransform} computing the same bins, whose unnormalized
+ * kernels grow with the window length.
+ * <p/>
+ * Christian Schörkhuber and Anssi Klapuri. Constant-Q transform toolbox for music processing.
+ * In <em>Proceedings of the 7th Sound and Music Computing Conference</em> (July 2010).
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class OctaveConstantQTransform implements ConstantQStream {
+    private static final int HALF_BAND_TAPS = 47;
+    /**
+     * The group delay of a decimation stage, in samples at the input rate of the stage.
+     */
+    public static final int HALF_BAND_DELAY = HALF_BAND_TAPS / 2;
+    /**
+     * The highest frequency, as a fraction of the input rate of a decimation stage, that the
+     * stage passes within 0.05 dB. The transition band reaches up to about 0.3.
+     */
+    public static final double HALF_BAND_PASSBAND_EDGE = 0.2;
+    private static final float[] HALF_BAND_COEFFICIENTS = createHalfBandCoefficients();
+
+    private final ConstantQTransform octaveKernel;
+    private final double minFrequency;
+    private final double ratio;
+    private final int binsPerOctave;
+    private final int numCoefficients;
+    private final int hopSize;
+
+    /**
+     * The most recent samples of each octave, highest octave first. Octave {@code o} is sampled
+     * at {@code sampleRate / 2^o}.
+     */
+    private final float[][] histories;
+    private final int[] writeIndices;
+    /**
+     * The decimator feeding each octave from the octave above it. The entry for the highest
+     * octave is unused.
+     */
+    private final HalfBandDecimator[] decimators;
+    private final float[] octaveSpectrum;
+    private final float[] octaveGains;
+    private final float[] octaveOffsetsDb;
+    private final long samplesToFill;
+
+    private long samplesWritten;
+    private int samplesSinceFrame;
+
+    /**
+     * Constructs an instance to compute the constant Q transform. The constant Q bins that will
+     * be computed are
+     * {@code {minFreq, minFreq * r, minFreq * r^2, ..., minFreq * r^(numConstantQBins - 1)}}
+     * where {@code r = 2^(1 / binsPerOctave)}.
+     *
+     * @param window the window function to apply. If null, then no windowing is used.
+     * @param sampleRate the sample rate
+     * @param minFreq the minimum frequency to compute
+     * @param binsPerOctave the number of constant Q bins in each octave
+     * @param numConstantQBins the number of coefficients to compute
+     * @param kernelThreshold the spectral kernel threshold
+     * @param hopSize the number of samples between the starts of consecutive frames
+     * @see ConstantQTransform.Builder#setKernelThreshold(float)
+     */
+    public OctaveConstantQTransform(@Nullable ConstantQTransform.WindowFunction window,
+                                    double sampleRate, double minFreq, int binsPerOctave,
+                                    int numConstantQBins, float kernelThreshold, int hopSize) {
+        this(createOctaveKernelBuilder(window, sampleRate, minFreq, binsPerOctave,
+                numConstantQBins, kernelThreshold).buildKernel(), numConstantQBins, hopSize);
+    }
+
+    /**
+     * Constructs an instance to compute the constant Q transform with a previously computed
+     * kernel for the highest octave.
+     *
+     * @param octaveKernel the half spectrum kernel of the highest octave
+     * @param numConstantQBins the number of coefficients to compute
+     * @param hopSize the number of samples between the starts of consecutive frames
+     * @see #createOctaveKernelBuilder(ConstantQTransform.WindowFunction, double, double, int,
+     * int, float)
+     */
+    public OctaveConstantQTransform(ConstantQKernel octaveKernel, int numConstantQBins,
+                                    int hopSize) {
+        if (!octaveKernel.isHalfSpectrum()) {
+            throw new IllegalArgumentException("octave kernel must cover the half spectrum");
+        }
+        if (numConstantQBins <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of coefficients: " + numConstantQBins);
+        }
+        if (hopSize <= 0) {
+            throw new IllegalArgumentException("non-positive hop size: " + hopSize);
+        }
+        this.octaveKernel = new ConstantQTransform(octaveKernel);
+        this.hopSize = hopSize;
+        binsPerOctave = octaveKernel.getNumCoefficients();
+        numCoefficients = numConstantQBins;
+        ratio = octaveKernel.getRatio();
+
+        int numOctaves = (numConstantQBins + binsPerOctave - 1) / binsPerOctave;
+        minFrequency = octaveKernel.getMinFrequency() / Math.pow(2, numOctaves - 1);
+
+        int numSamples = octaveKernel.getFftSize();
+        histories = new float[numOctaves][numSamples];
+        writeIndices = new int[numOctaves];
+        decimators = new HalfBandDecimator[numOctaves];
+        for (int o = 1; o < numOctaves; o++) {
+            decimators[o] = new HalfBandDecimator();
+        }
+        octaveSpectrum = new float[2 * binsPerOctave];
+        samplesToFill = (long) numSamples << (numOctaves - 1);
+
+        // A ConstantQTransform over all of the octaves uses an FFT 2^(numOctaves - 1) times
+        // larger, and its windows in octave o are 2^o times longer than the octave kernel's.
+        octaveGains = new float[numOctaves];
+        octaveOffsetsDb = new float[numOctaves];
+        for (int o = 0; o < numOctaves; o++) {
+            octaveGains[o] = (float) Math.pow(2, numOctaves - 1 + o);
+            octaveOffsetsDb[o] = (float) (20 * Math.log10(2) * (numOctaves - 1 + o));
+        }
+    }
+
+    /**
+     * Creates a builder for the kernel of the highest octave of a transform. The constant Q bins
+     * of the transform are
+     * {@code {minFreq, minFreq * r, minFreq * r^2, ..., minFreq * r^(numConstantQBins - 1)}}
+     * where {@code r = 2^(1 / binsPerOctave)}.
+     *
+     * @param window the window function to apply. If null, then no windowing is used.
+     * @param sampleRate the sample rate
+     * @param minFreq the minimum frequency to compute
+     * @param binsPerOctave the number of constant Q bins in each octave
+     * @param numConstantQBins the number of coefficients to compute
+     * @param kernelThreshold the spectral kernel threshold
+     * @return a builder for the octave kernel
+     */
+    public static ConstantQTransform.Builder createOctaveKernelBuilder(
+            @Nullable ConstantQTransform.WindowFunction window, double sampleRate, double minFreq,
+            int binsPerOctave, int numConstantQBins, float kernelThreshold) {
+        if (binsPerOctave <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of bins per octave: " + binsPerOctave);
+        }
+        if (numConstantQBins <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of coefficients: " + numConstantQBins);
+        }
+        double r = Math.pow(2, 1.0 / binsPerOctave);
+        double topOctaveMinFreq = getTopOctaveMinFrequency(minFreq, binsPerOctave,
+                numConstantQBins);
+        if (!fitsPassband(sampleRate, minFreq, binsPerOctave, numConstantQBins)) {
+            throw new IllegalArgumentException(
+                    "highest octave exceeds the Nyquist frequency or the decimation passband: "
+                            + topOctaveMinFreq * Math.pow(r, binsPerOctave - 1));
+        }
+        return new ConstantQTransform.Builder(sampleRate, topOctaveMinFreq, r, binsPerOctave)
+                .setWindow(window)
+                .setKernelThreshold(kernelThreshold)
+                .setHalfSpectrum(true);
+    }
+
+    /**
+     * Returns whether the highest octave of a transform lies below the Nyquist frequency and,
+     * if there are lower octaves, whether each of them lies within the passband of the
+     * decimation stage that produces it. The kernel is shared by all octaves, so the highest
+     * bin of the kernel, halved, must lie below {@link #HALF_BAND_PASSBAND_EDGE} times the
+     * sample rate. The highest octave is always computed in full, so this can fail even if the
+     * highest bin itself lies within these limits.
+     *
+     * @param sampleRate the sample rate
+     * @param minFreq the minimum frequency to compute
+     * @param binsPerOctave the number of constant Q bins in each octave
+     * @param numConstantQBins the number of coefficients to compute
+     * @return whether {@link #createOctaveKernelBuilder} accepts the parameters
+     */
+    public static boolean fitsPassband(double sampleRate, double minFreq, int binsPerOctave,
+                                       int numConstantQBins) {
+        if (binsPerOctave <= 0 || numConstantQBins <= 0) {
+            return false;
+        }
+        double r = Math.pow(2, 1.0 / binsPerOctave);
+        double maxFreq = getTopOctaveMinFrequency(minFreq, binsPerOctave, numConstantQBins)
+                * Math.pow(r, binsPerOctave - 1);
+        if (numConstantQBins > binsPerOctave) {
+            // The next octave sees the same bins at half the frequency, filtered at this rate.
+            return maxFreq / 2 < HALF_BAND_PASSBAND_EDGE * sampleRate;
+        }
+        return maxFreq < sampleRate / 2;
+    }
+
+    private static double getTopOctaveMinFrequency(double minFreq, int binsPerOctave,
+                                                   int numConstantQBins) {
+        int numOctaves = (numConstantQBins + binsPerOctave - 1) / binsPerOctave;
+        return minFreq * Math.pow(2, numOctaves - 1);
+    }
+
+    private static float[] createHalfBandCoefficients() {
+        // A Blackman-windowed sinc with its cutoff at a quarter of the sample rate. Every other
+        // coefficient besides the center one is zero.
+        float[] h = new float[HALF_BAND_TAPS];
+        int center = HALF_BAND_TAPS / 2;
+        double sum = 0;
+        for (int i = 0; i < HALF_BAND_TAPS; i++) {
+            int k = i - center;
+            double sinc = k == 0 ? 0.5 : Math.sin(Math.PI * k / 2) / (Math.PI * k);
+            double w = 0.42 - 0.5 * Math.cos(2 * Math.PI * i / (HALF_BAND_TAPS - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * i / (HALF_BAND_TAPS - 1));
+            h[i] = (float) (sinc * w);
+            sum += h[i];
+        }
+        for (int i = 0; i < HALF_BAND_TAPS; i++) {
+            h[i] /= sum;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the number of bins per octave for a ratio between neighboring frequencies, if the
+     * ratio is an integral root of 2.
+     *
+     * @param r the geometric ratio between neighboring frequencies
+     * @return {@code b} such that {@code r = 2^(1 / b)}, or -1 if there is none
+     */
+    public static int getBinsPerOctave(double r) {
+        if (r <= 1) {
+            return -1;
+        }
+        long b = Math.round(Math.log(2) / Math.log(r));
+        if (b < 1 || b > Integer.MAX_VALUE || Math.abs(Math.pow(2, 1.0 / b) - r) > 1e-9) {
+            return -1;
+        }
+        return (int) b;
+    }
+
+    public int getNumOctaves() {
+        return histories.length;
+    }
+
+    public int getBinsPerOctave() {
+        return binsPerOctave;
+    }
+
+    /**
+     * Returns the size of the FFT that is computed for each octave.
+     *
+     * @return the FFT size
+     */
+    public int getFftSize() {
+        return octaveKernel.getFftSize();
+    }
+
+    @Override
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    @Override
+    public int getWindowLength() {
+        return MiscMath.toIntExact(samplesToFill);
+    }
+
+    @Override
+    public int getNumCoefficients() {
+        return numCoefficients;
+    }
+
+    @Override
+    public double getRatio() {
+        return ratio;
+    }
+
+    @Override
+    public double getMinFrequency() {
+        return minFrequency;
+    }
+
+    @Override
+    public int write(float[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds");
+        }
+        if (isFrameReady()) {
+            return 0;
+        }
+
+        boolean filling = samplesWritten < samplesToFill;
+        int toWrite;
+        if (filling) {
+            toWrite = (int) Math.min(length, samplesToFill - samplesWritten);
+        } else {
+            toWrite = Math.min(length, hopSize - samplesSinceFrame);
+        }
+
+        for (int i = offset; i < offset + toWrite; i++) {
+            float x = samples[i];
+            append(0, x);
+            for (int o = 1; o < histories.length; o++) {
+                if (!decimators[o].write(x)) {
+                    break;
+                }
+                x = decimators[o].output;
+                append(o, x);
+            }
+        }
+
+        samplesWritten += toWrite;
+        if (!filling) {
+            samplesSinceFrame += toWrite;
+        } else if (samplesWritten == samplesToFill) {
+            // The first frame is ready as soon as the lowest octave is filled.
+            samplesSinceFrame = hopSize;
+        }
+        return toWrite;
+    }
+
+    private void append(int octave, float x) {
+        float[] history = histories[octave];
+        int i = writeIndices[octave];
+        history[i] = x;
+        writeIndices[octave] = i + 1 == history.length ? 0 : i + 1;
+    }
+
+    @Override
+    public boolean isFrameReady() {
+        return samplesWritten >= samplesToFill && samplesSinceFrame >= hopSize;
+    }
+
+    @Override
+    public void realConstantQPowerDb(float[] output, double p0) {
+        realConstantQ(output, ConstantQTransform.OutputMode.POWER_DB, p0);
+    }
+
+    @Override
+    public void realConstantQ(float[] output, ConstantQTransform.OutputMode mode, double p0) {
+        if (!isFrameReady()) {
+            throw new IllegalStateException("no frame is ready");
+        }
+        boolean complex = mode == ConstantQTransform.OutputMode.COMPLEX;
+        if (output.length < (complex ? 2 * numCoefficients : numCoefficients)) {
+            throw new IllegalArgumentException(
+                    "length of output array be at least the number of constant Q coefficients");
+        }
+        int numOctaves = histories.length;
+        for (int o = 0; o < numOctaves; o++) {
+            octaveKernel.realConstantQ(histories[o], writeIndices[o], octaveSpectrum, mode, p0);
+
+            int first = (numOctaves - 1 - o) * binsPerOctave;
+            int n = Math.min(binsPerOctave, numCoefficients - first);
+            switch (mode) {
+                case COMPLEX:
+                    for (int k = 0; k < 2 * n; k++) {
+                        output[2 * first + k] = octaveSpectrum[k] * octaveGains[o];
+                    }
+                    break;
+                case MAGNITUDE:
+                    for (int k = 0; k < n; k++) {
+                        output[first + k] = octaveSpectrum[k] * octaveGains[o];
+                    }
+                    break;
+                case POWER:
+                    for (int k = 0; k < n; k++) {
+                        output[first + k] = octaveSpectrum[k] * octaveGains[o] * octaveGains[o];
+                    }
+                    break;
+                default:
+                    for (int k = 0; k < n; k++) {
+                        output[first + k] = octaveSpectrum[k] + octaveOffsetsDb[o];
+                    }
+                    break;
+            }
+        }
+        samplesSinceFrame = 0;
+    }
+
+    @Override
+    public void reset() {
+        for (int o = 0; o < histories.length; o++) {
+            Arrays.fill(histories[o], 0);
+            writeIndices[o] = 0;
+            if (decimators[o] != null) {
+                decimators[o].reset();
+            }
+        }
+        samplesWritten = 0;
+        samplesSinceFrame = 0;
+    }
+
+    /**
+     * Low-pass filters a stream of samples with a half-band filter and keeps every other
+     * sample.
+     */
+    private static class HalfBandDecimator {
+        /**
+         * The most recent {@link #HALF_BAND_TAPS} samples, stored twice so that they can be read
+         * contiguously starting at {@link #position}.
+         */
+        private final float[] delayLine = new float[2 * HALF_BAND_TAPS];
+        private int position;
+        private boolean odd;
+        float output;
+
+        /**
+         * Writes a sample.
+         *
+         * @param x the sample
+         * @return whether a decimated sample was produced in {@link #output}
+         */
+        boolean write(float x) {
+            delayLine[position] = x;
+            delayLine[position + HALF_BAND_TAPS] = x;
+            position = position + 1 == HALF_BAND_TAPS ? 0 : position + 1;
+
+            odd = !odd;
+            if (!odd) {
+                return false;
+            }
+
+            // The filter is symmetric and only the odd offsets from the center are nonzero.
+            float[] h = HALF_BAND_COEFFICIENTS;
+            int center = position + HALF_BAND_DELAY;
+            float y = h[HALF_BAND_DELAY] * delayLine[center];
+            for (int k = 1; k <= HALF_BAND_DELAY; k += 2) {
+                y += h[HALF_BAND_DELAY + k] * (delayLine[center - k] + delayLine[center + k]);
+            }
+            output = y;
+            return true;
+        }
+
+        void reset() {
+            Arrays.fill(delayLine, 0);
+            position = 0;
+            odd = false;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+/**
+ * Estimates the pitch of a stream of samples. Samples are written in blocks of any size, and
+ * the pitch of the most recent samples may be requested at any time.
+ */
+public interface PitchEngine {
+    /**
+     * Appends samples to the stream.
+     *
+     * @param samples the array containing the samples
+     * @param offset the index of the first sample to write
+     * @param length the number of samples to write
+     */
+    void write(float[] samples, int offset, int length);
+
+    /**
+     * Estimates the pitch of the most recent samples.
+     *
+     * @param result the estimate to write into
+     * @return whether a pitch was detected
+     */
+    boolean detect(PitchEstimate result);
+
+    /**
+     * Discards the samples that have been written.
+     */
+    void reset();
+
+    /**
+     * Returns the number of samples that an estimate depends on, which bounds how long a note
+     * takes to be detected.
+     *
+     * @return the window length in samples
+     */
+    int getWindowLength();
+}
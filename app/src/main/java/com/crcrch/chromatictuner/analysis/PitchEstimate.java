@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+/**
+ * The result of a pitch detector: a frequency and the nearest note of the equal-tempered scale
+ * tuned to a reference A4. Detectors write into an instance that the caller reuses from frame to
+ * frame, so that no objects are allocated per frame.
+ */
+public class PitchEstimate {
+    private static final int NOTES_PER_OCTAVE = 12;
+    /**
+     * The number of semitones from C to A, so that pitch class 0 is C as in
+     * {@link com.crcrch.chromatictuner.util.MiscMusic#CHROMATIC_SCALE}.
+     */
+    private static final int A_PITCH_CLASS = 9;
+    private static final int A4_OCTAVE = 4;
+
+    private boolean pitched;
+    private double frequency;
+    private int semitonesFromA4;
+    private double cents;
+    private double strength;
+
+    /**
+     * Sets the estimate to a detected frequency.
+     *
+     * @param frequency the detected frequency
+     * @param a4 the frequency of A4 that the notes are tuned to
+     * @param strength how strongly the pitch was detected, in units that depend on the detector
+     */
+    public void set(double frequency, double a4, double strength) {
+        double semitones = NOTES_PER_OCTAVE * Math.log(frequency / a4) / Math.log(2);
+        pitched = true;
+        this.frequency = frequency;
+        semitonesFromA4 = (int) Math.round(semitones);
+        cents = 100 * (semitones - semitonesFromA4);
+        this.strength = strength;
+    }
+
+    /**
+     * Sets the estimate to having no pitch.
+     */
+    public void clear() {
+        pitched = false;
+        frequency = 0;
+        semitonesFromA4 = 0;
+        cents = 0;
+        strength = 0;
+    }
+
+    public void copyFrom(PitchEstimate other) {
+        pitched = other.pitched;
+        frequency = other.frequency;
+        semitonesFromA4 = other.semitonesFromA4;
+        cents = other.cents;
+        strength = other.strength;
+    }
+
+    /**
+     * Returns whether a pitch was detected. If not, then the other values are meaningless.
+     *
+     * @return whether a pitch was detected
+     */
+    public boolean isPitched() {
+        return pitched;
+    }
+
+    public double getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * Returns the signed number of semitones from A4 to the nearest note.
+     *
+     * @return the nearest note relative to A4
+     */
+    public int getSemitonesFromA4() {
+        return semitonesFromA4;
+    }
+
+    /**
+     * Returns the pitch class of the nearest note, where 0 is C.
+     *
+     * @return an index into {@link com.crcrch.chromatictuner.util.MiscMusic#CHROMATIC_SCALE}
+     */
+    public int getPitchClass() {
+        int n = (semitonesFromA4 + A_PITCH_CLASS) % NOTES_PER_OCTAVE;
+        return n < 0 ? n + NOTES_PER_OCTAVE : n;
+    }
+
+    /**
+     * Returns the octave of the nearest note in scientific pitch notation, in which A4 is in
+     * octave 4 and each octave starts at C.
+     *
+     * @return the octave number
+     */
+    public int getOctave() {
+        int n = semitonesFromA4 + A_PITCH_CLASS;
+        int octaves = n >= 0 ? n / NOTES_PER_OCTAVE : (n + 1) / NOTES_PER_OCTAVE - 1;
+        return A4_OCTAVE + octaves;
+    }
+
+    /**
+     * Returns how far the frequency is from the nearest note, in the range {@code [-50, 50]}.
+     *
+     * @return the offset in cents
+     */
+    public double getCents() {
+        return cents;
+    }
+
+    public double getStrength() {
+        return strength;
+    }
+}
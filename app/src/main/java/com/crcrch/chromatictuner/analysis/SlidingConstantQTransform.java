@@ -0,0 +1,432 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Computes constant Q frames with a sliding DFT, which updates every bin recursively with a
+ * constant amount of work per sample instead of transforming a whole window per frame, so that
+ * frames can be computed as often as every sample block. Each bin covers the most recent
+ * {@code Q * sampleRate / f} samples, the same window lengths as {@link ConstantQTransform},
+ * with a Hann window applied in the frequency domain by combining the bin with its neighbors
+ * half a window bin away.
+ * <p/>
+ * The recursion for a bin of angular frequency {@code w} and window length {@code N} is
+ * {@code S(n) = r e^(jw) (S(n - 1) - r^(N - 1) x(n - N)) + e^(-jw(N - 1)) x(n)}, where
+ * {@code r} is a damping factor slightly less than one that makes rounding errors decay instead
+ * of accumulating. The damping also tapers the oldest samples of the window, where the Hann
+ * window is close to zero anyway. Each bin is additionally re-anchored by recomputing it from
+ * the history over its window, so that errors never build up over more than one
+ * re-anchoring period.
+ * <p/>
+ * Powers are on the same scale as those of a {@link ConstantQTransform} with a Hann window and
+ * an exact FFT size. Complex values are phase-referenced to the start of each bin's window.
+ * <p/>
+ * Computing frames does not allocate. Instances are not thread-safe.
+ */
+public class SlidingConstantQTransform implements ConstantQStream {
+    /**
+     * The damping factor per sample. Over a window of 40000 samples, the middle of the window
+     * is attenuated by 0.09 dB.
+     */
+    public static final double DEFAULT_DAMPING = 1 - 1e-6;
+
+    /**
+     * The default number of samples between re-anchorings of each bin.
+     */
+    public static final int DEFAULT_REANCHOR_PERIOD = 1 << 20;
+
+    /**
+     * The offsets of the three sliding bins of each constant Q bin in units of window bins,
+     * and their weights in the Hann window.
+     */
+    private static final int[] HANN_OFFSETS = {-1, 0, 1};
+    private static final double[] HANN_WEIGHTS = {-0.25, 0.5, -0.25};
+    private static final int NUM_TERMS = HANN_OFFSETS.length;
+
+    private final double sampleRate;
+    private final double minFrequency;
+    private final double ratio;
+    private final int numCoefficients;
+    private final int hopSize;
+    private final int[] windowLengths;
+    private final int maxWindowLength;
+
+    /**
+     * The gain that brings the sums to the scale of {@link ConstantQTransform}, whose
+     * coefficients grow with its FFT size.
+     */
+    private final double gain;
+
+    /**
+     * The most recent samples. It holds a hop more than the longest window, so that the samples
+     * leaving the windows are still available while a block of up to one hop is processed.
+     */
+    private final float[] history;
+
+    // State and constants of the sliding bins, NUM_TERMS per constant Q bin
+    private final double[] stateRe;
+    private final double[] stateIm;
+    private final double[] rotationRe;
+    private final double[] rotationIm;
+    private final double[] inputRe;
+    private final double[] inputIm;
+
+    /**
+     * The weight {@code r^(N - 1)} of the sample leaving the window of each constant Q bin.
+     */
+    private final double[] leavingWeights;
+
+    private double damping;
+    private int reanchorInterval;
+
+    private int writeIndex;
+    private int numWritten;
+    private int samplesSinceFrame;
+    private int samplesSinceReanchor;
+    private int nextReanchorBin;
+
+    /**
+     * Constructs a transform with the bins {@code minFrequency * ratio^k}.
+     *
+     * @param sampleRate the sample rate
+     * @param minFrequency the frequency of the lowest bin
+     * @param ratio the geometric ratio between neighboring bins
+     * @param numCoefficients the number of bins
+     * @param hopSize the number of samples between consecutive frames
+     */
+    public SlidingConstantQTransform(double sampleRate, double minFrequency, double ratio,
+                                     int numCoefficients, int hopSize) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("non-positive sample rate: " + sampleRate);
+        }
+        if (minFrequency <= 0) {
+            throw new IllegalArgumentException("non-positive minimum frequency: " + minFrequency);
+        }
+        if (ratio <= 1) {
+            throw new IllegalArgumentException("ratio must be greater than 1: " + ratio);
+        }
+        if (numCoefficients <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of coefficients: " + numCoefficients);
+        }
+        if (hopSize <= 0) {
+            throw new IllegalArgumentException("non-positive hop size: " + hopSize);
+        }
+        double maxFrequency = minFrequency * Math.pow(ratio, numCoefficients - 1);
+        if (maxFrequency >= sampleRate / 2) {
+            throw new IllegalArgumentException(
+                    "maximum frequency exceeds the Nyquist frequency: " + maxFrequency);
+        }
+        this.sampleRate = sampleRate;
+        this.minFrequency = minFrequency;
+        this.ratio = ratio;
+        this.numCoefficients = numCoefficients;
+        this.hopSize = hopSize;
+
+        double q = minFrequency / ConstantQTransform.getResolution(minFrequency, ratio);
+        windowLengths = new int[numCoefficients];
+        for (int k = 0; k < numCoefficients; k++) {
+            windowLengths[k] = Math.max(1,
+                    (int) (q * sampleRate / (minFrequency * Math.pow(ratio, k))));
+        }
+        maxWindowLength = windowLengths[0];
+        gain = ConstantQTransform.getFftSize(sampleRate, minFrequency, ratio);
+        history = new float[maxWindowLength + hopSize];
+
+        int numTerms = NUM_TERMS * numCoefficients;
+        stateRe = new double[numTerms];
+        stateIm = new double[numTerms];
+        rotationRe = new double[numTerms];
+        rotationIm = new double[numTerms];
+        inputRe = new double[numTerms];
+        inputIm = new double[numTerms];
+        leavingWeights = new double[numCoefficients];
+
+        setDamping(DEFAULT_DAMPING);
+        setReanchorPeriod(DEFAULT_REANCHOR_PERIOD);
+    }
+
+    /**
+     * Sets the damping factor and resets the transform.
+     *
+     * @param damping the factor in {@code (0, 1]} by which each sample decays per sample
+     */
+    public void setDamping(double damping) {
+        if (!(damping > 0 && damping <= 1)) {
+            throw new IllegalArgumentException("damping not in the range (0, 1]: " + damping);
+        }
+        this.damping = damping;
+        for (int k = 0; k < numCoefficients; k++) {
+            int windowLength = windowLengths[k];
+            double frequency = minFrequency * Math.pow(ratio, k);
+            for (int t = 0; t < NUM_TERMS; t++) {
+                int i = NUM_TERMS * k + t;
+                double w = 2 * Math.PI * (frequency / sampleRate
+                        + (double) HANN_OFFSETS[t] / windowLength);
+                rotationRe[i] = damping * Math.cos(w);
+                rotationIm[i] = damping * Math.sin(w);
+                inputRe[i] = Math.cos(w * (windowLength - 1));
+                inputIm[i] = -Math.sin(w * (windowLength - 1));
+            }
+            leavingWeights[k] = Math.pow(damping, windowLength - 1);
+        }
+        reset();
+    }
+
+    public double getDamping() {
+        return damping;
+    }
+
+    /**
+     * Sets how often the bins are recomputed from the history. Bins are re-anchored one at a
+     * time, evenly spread over the period.
+     *
+     * @param reanchorPeriod the number of samples between re-anchorings of each bin
+     */
+    public void setReanchorPeriod(int reanchorPeriod) {
+        if (reanchorPeriod <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive re-anchoring period: " + reanchorPeriod);
+        }
+        reanchorInterval = Math.max(1, reanchorPeriod / numCoefficients);
+    }
+
+    @Override
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    @Override
+    public int getWindowLength() {
+        return maxWindowLength;
+    }
+
+    @Override
+    public int getNumCoefficients() {
+        return numCoefficients;
+    }
+
+    @Override
+    public double getRatio() {
+        return ratio;
+    }
+
+    @Override
+    public double getMinFrequency() {
+        return minFrequency;
+    }
+
+    @Override
+    public int write(float[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds");
+        }
+        if (isFrameReady()) {
+            return 0;
+        }
+
+        int toWrite;
+        if (numWritten < maxWindowLength) {
+            // The first frame is ready as soon as the longest window is filled.
+            toWrite = Math.min(Math.min(length, hopSize), maxWindowLength - numWritten);
+        } else {
+            toWrite = Math.min(length, hopSize - samplesSinceFrame);
+        }
+
+        int start = writeIndex;
+        int written = 0;
+        while (written < toWrite) {
+            int n = Math.min(toWrite - written, history.length - writeIndex);
+            System.arraycopy(samples, offset + written, history, writeIndex, n);
+            written += n;
+            writeIndex = (writeIndex + n) % history.length;
+        }
+        for (int k = 0; k < numCoefficients; k++) {
+            slide(k, start, toWrite);
+        }
+
+        if (numWritten < maxWindowLength) {
+            numWritten += toWrite;
+            if (numWritten == maxWindowLength) {
+                samplesSinceFrame = hopSize;
+            }
+        } else {
+            samplesSinceFrame += toWrite;
+        }
+
+        samplesSinceReanchor += toWrite;
+        while (samplesSinceReanchor >= reanchorInterval) {
+            samplesSinceReanchor -= reanchorInterval;
+            reanchor(nextReanchorBin);
+            nextReanchorBin = (nextReanchorBin + 1) % numCoefficients;
+        }
+        return toWrite;
+    }
+
+    /**
+     * Slides the window of a constant Q bin over samples that have just been written.
+     *
+     * @param k the constant Q bin
+     * @param start the index in {@link #history} of the first sample
+     * @param length the number of samples
+     */
+    private void slide(int k, int start, int length) {
+        int windowLength = windowLengths[k];
+        double leavingWeight = leavingWeights[k];
+        int i0 = NUM_TERMS * k;
+        int i1 = i0 + 1;
+        int i2 = i0 + 2;
+        double re0 = stateRe[i0];
+        double im0 = stateIm[i0];
+        double re1 = stateRe[i1];
+        double im1 = stateIm[i1];
+        double re2 = stateRe[i2];
+        double im2 = stateIm[i2];
+
+        int in = start;
+        int out = start - windowLength;
+        if (out < 0) {
+            out += history.length;
+        }
+        for (int n = 0; n < length; n++) {
+            double x = history[in];
+            double leaving = leavingWeight * history[out];
+            if (++in == history.length) {
+                in = 0;
+            }
+            if (++out == history.length) {
+                out = 0;
+            }
+
+            double re = re0 - leaving;
+            re0 = re * rotationRe[i0] - im0 * rotationIm[i0] + x * inputRe[i0];
+            im0 = re * rotationIm[i0] + im0 * rotationRe[i0] + x * inputIm[i0];
+            re = re1 - leaving;
+            re1 = re * rotationRe[i1] - im1 * rotationIm[i1] + x * inputRe[i1];
+            im1 = re * rotationIm[i1] + im1 * rotationRe[i1] + x * inputIm[i1];
+            re = re2 - leaving;
+            re2 = re * rotationRe[i2] - im2 * rotationIm[i2] + x * inputRe[i2];
+            im2 = re * rotationIm[i2] + im2 * rotationRe[i2] + x * inputIm[i2];
+        }
+
+        stateRe[i0] = re0;
+        stateIm[i0] = im0;
+        stateRe[i1] = re1;
+        stateIm[i1] = im1;
+        stateRe[i2] = re2;
+        stateIm[i2] = im2;
+    }
+
+    /**
+     * Recomputes a constant Q bin from the samples in its window, discarding the rounding
+     * errors accumulated by the recursion.
+     *
+     * @param k the constant Q bin
+     */
+    private void reanchor(int k) {
+        int windowLength = windowLengths[k];
+        int start = writeIndex - windowLength;
+        if (start < 0) {
+            start += history.length;
+        }
+        for (int t = 0; t < NUM_TERMS; t++) {
+            int i = NUM_TERMS * k + t;
+            double rotRe = rotationRe[i];
+            double rotIm = rotationIm[i];
+
+            // Horner's method over the window, multiplied by the input weight at the end
+            double re = 0;
+            double im = 0;
+            int j = start;
+            for (int n = 0; n < windowLength; n++) {
+                double newRe = re * rotRe - im * rotIm + history[j];
+                im = re * rotIm + im * rotRe;
+                re = newRe;
+                if (++j == history.length) {
+                    j = 0;
+                }
+            }
+            stateRe[i] = re * inputRe[i] - im * inputIm[i];
+            stateIm[i] = re * inputIm[i] + im * inputRe[i];
+        }
+    }
+
+    @Override
+    public boolean isFrameReady() {
+        return numWritten == maxWindowLength && samplesSinceFrame >= hopSize;
+    }
+
+    /**
+     * Computes the power spectrum of the frame that is ready.
+     *
+     * @param output the output array of size at least {@link #getNumCoefficients()}
+     * @param p0 the reference power level
+     * @throws IllegalStateException if no frame is ready
+     */
+    @Override
+    public void realConstantQPowerDb(float[] output, double p0) {
+        realConstantQ(output, ConstantQTransform.OutputMode.POWER_DB, p0);
+    }
+
+    /**
+     * Computes the constant Q transform of the frame that is ready from the current state of
+     * the sliding bins.
+     *
+     * @param output the output array of size at least {@link #getNumCoefficients()}, or twice
+     * that for {@link ConstantQTransform.OutputMode#COMPLEX}
+     * @param mode the values to output
+     * @param p0 the reference power level, which is only used by the decibel output modes
+     * @throws IllegalStateException if no frame is ready
+     */
+    @Override
+    public void realConstantQ(float[] output, ConstantQTransform.OutputMode mode, double p0) {
+        if (!isFrameReady()) {
+            throw new IllegalStateException("no frame is ready");
+        }
+        for (int k = 0; k < numCoefficients; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t < NUM_TERMS; t++) {
+                re += HANN_WEIGHTS[t] * stateRe[NUM_TERMS * k + t];
+                im += HANN_WEIGHTS[t] * stateIm[NUM_TERMS * k + t];
+            }
+            ConstantQTransform.store(output, k, (float) (gain * re), (float) (gain * im), mode);
+        }
+        if (mode != ConstantQTransform.OutputMode.COMPLEX) {
+            ConstantQTransform.convertPower(output, 0, numCoefficients, mode, p0);
+        }
+        samplesSinceFrame = 0;
+    }
+
+    /**
+     * Discards the history, so that the next frame will only be ready after another
+     * {@link #getWindowLength()} samples have been written.
+     */
+    @Override
+    public void reset() {
+        Arrays.fill(history, 0);
+        Arrays.fill(stateRe, 0);
+        Arrays.fill(stateIm, 0);
+        writeIndex = 0;
+        numWritten = 0;
+        samplesSinceFrame = 0;
+        samplesSinceReanchor = 0;
+        nextReanchorBin = 0;
+    }
+}
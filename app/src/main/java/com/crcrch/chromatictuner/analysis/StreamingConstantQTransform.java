@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+/**
+ * Computes overlapping constant Q frames over a stream of samples. The most recent
+ * {@link ConstantQTransform#getFftSize()} samples are kept in a circular history, and a new frame
+ * becomes ready every {@code hopSize} samples once the history has been filled, so the frame
+ * rate is independent of the window length of the lowest constant Q bin.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class StreamingConstantQTransform implements ConstantQStream {
+    private final ConstantQTransform constantQ;
+    private final int hopSize;
+    private final float[] history;
+
+    /**
+     * The index in {@link #history} that the next sample is written to, which is also the index
+     * of the oldest sample once the history is full.
+     */
+    private int writeIndex;
+    private boolean historyFull;
+    private int samplesSinceFrame;
+
+    /**
+     * Constructs a streaming front end for a transform.
+     *
+     * @param constantQ the transform to compute frames with
+     * @param hopSize the number of samples between the starts of consecutive frames
+     */
+    public StreamingConstantQTransform(ConstantQTransform constantQ, int hopSize) {
+        if (hopSize <= 0) {
+            throw new IllegalArgumentException("non-positive hop size: " + hopSize);
+        }
+        this.constantQ = constantQ;
+        this.hopSize = hopSize;
+        history = new float[constantQ.getFftSize()];
+    }
+
+    public ConstantQTransform getConstantQTransform() {
+        return constantQ;
+    }
+
+    @Override
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    @Override
+    public int getWindowLength() {
+        return history.length;
+    }
+
+    @Override
+    public int getNumCoefficients() {
+        return constantQ.getNumCoefficients();
+    }
+
+    @Override
+    public double getRatio() {
+        return constantQ.getRatio();
+    }
+
+    @Override
+    public double getMinFrequency() {
+        return constantQ.getMinFrequency();
+    }
+
+    @Override
+    public int write(float[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds");
+        }
+        if (isFrameReady()) {
+            return 0;
+        }
+
+        if (!historyFull) {
+            // The first frame is ready as soon as the history is filled.
+            int n = Math.min(length, history.length - writeIndex);
+            System.arraycopy(samples, offset, history, writeIndex, n);
+            writeIndex += n;
+            if (writeIndex == history.length) {
+                writeIndex = 0;
+                historyFull = true;
+                samplesSinceFrame = hopSize;
+            }
+            return n;
+        }
+
+        int toWrite = Math.min(length, hopSize - samplesSinceFrame);
+        int written = 0;
+        while (written < toWrite) {
+            int n = Math.min(toWrite - written, history.length - writeIndex);
+            System.arraycopy(samples, offset + written, history, writeIndex, n);
+            written += n;
+            writeIndex = (writeIndex + n) % history.length;
+        }
+        samplesSinceFrame += written;
+        return written;
+    }
+
+    @Override
+    public boolean isFrameReady() {
+        return historyFull && samplesSinceFrame >= hopSize;
+    }
+
+    /**
+     * Computes the power spectrum of the frame that is ready, consisting of the most recent
+     * {@link ConstantQTransform#getFftSize()} samples in chronological order.
+     *
+     * @param output the output array of size exactly
+     * {@link ConstantQTransform#getNumCoefficients()}
+     * @param p0 the reference power level
+     * @throws IllegalStateException if no frame is ready
+     */
+    @Override
+    public void realConstantQPowerDb(float[] output, double p0) {
+        realConstantQ(output, ConstantQTransform.OutputMode.POWER_DB, p0);
+    }
+
+    /**
+     * Computes the constant Q transform of the frame that is ready, consisting of the most
+     * recent {@link ConstantQTransform#getFftSize()} samples in chronological order.
+     *
+     * @param output the output array of size at least
+     * {@link ConstantQTransform#getOutputLength(ConstantQTransform.OutputMode)}
+     * @param mode the values to output
+     * @param p0 the reference power level
+     * @throws IllegalStateException if no frame is ready
+     */
+    @Override
+    public void realConstantQ(float[] output, ConstantQTransform.OutputMode mode, double p0) {
+        if (!isFrameReady()) {
+            throw new IllegalStateException("no frame is ready");
+        }
+        constantQ.realConstantQ(history, writeIndex, output, mode, p0);
+        samplesSinceFrame = 0;
+    }
+
+    /**
+     * Discards the history, so that the next frame will only be ready after another
+     * {@link ConstantQTransform#getFftSize()} samples have been written.
+     */
+    @Override
+    public void reset() {
+        writeIndex = 0;
+        historyFull = false;
+        samplesSinceFrame = 0;
+    }
+}
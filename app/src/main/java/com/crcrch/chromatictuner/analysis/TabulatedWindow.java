@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A window function whose coefficients are computed once per window length and cached, so that
+ * building a spectral kernel reads an array instead of evaluating the function for every sample.
+ * The built-in windows are identified by a name, which allows kernels that use them to be
+ * cached.
+ * <p/>
+ * The windows are symmetric: coefficient {@code n} of a window of length {@code N} is computed
+ * at {@code n / (N - 1)}, and a window of length 1 is {@code {1}}. Instances are thread-safe.
+ */
+public abstract class TabulatedWindow implements ConstantQTransform.WindowFunction {
+    public static final TabulatedWindow HANN = new CosineSumWindow("hann", 0.5, 0.5);
+    public static final TabulatedWindow HAMMING = new CosineSumWindow("hamming", 0.54, 0.46);
+    public static final TabulatedWindow BLACKMAN_HARRIS = new CosineSumWindow("blackman-harris",
+            0.35875, 0.48829, 0.14128, 0.01168);
+
+    /**
+     * The maximum number of coefficients that each window keeps cached, over all of its window
+     * lengths.
+     */
+    private static final int MAX_CACHED_COEFFICIENTS = 1 << 18;
+
+    private static final String KAISER_PREFIX = "kaiser-";
+
+    /**
+     * The maximum number of Kaiser windows that are interned, so that repeated lookups of the
+     * same beta share one instance and its cached coefficients.
+     */
+    private static final int MAX_INTERNED_KAISER_WINDOWS = 8;
+
+    // Guarded by itself.
+    private static final LinkedHashMap<Double, TabulatedWindow> KAISER_WINDOWS =
+            new LinkedHashMap<Double, TabulatedWindow>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Double, TabulatedWindow> eldest) {
+                    return size() > MAX_INTERNED_KAISER_WINDOWS;
+                }
+            };
+
+    private final String name;
+
+    // Guarded by tables.
+    private final LinkedHashMap<Integer, float[]> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private int numCachedCoefficients;
+
+    /**
+     * @param name the name that identifies the coefficients of the window
+     */
+    protected TabulatedWindow(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns a Kaiser window. Larger values of {@code beta} give lower side lobes and a wider
+     * main lobe; {@code beta = 8.6} is similar to a Blackman window. Recently requested
+     * windows are shared, so the same beta usually returns the same instance.
+     *
+     * @param beta the shape parameter
+     * @return a Kaiser window
+     */
+    public static TabulatedWindow kaiser(double beta) {
+        if (!(beta >= 0)) {
+            throw new IllegalArgumentException("negative Kaiser beta: " + beta);
+        }
+        synchronized (KAISER_WINDOWS) {
+            TabulatedWindow window = KAISER_WINDOWS.get(beta);
+            if (window == null) {
+                window = new KaiserWindow(beta);
+                KAISER_WINDOWS.put(beta, window);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * Returns the window with a name returned by {@link #getName()}.
+     *
+     * @param name the name of the window
+     * @return the window, or null if there is no such window
+     */
+    @Nullable
+    public static TabulatedWindow forName(String name) {
+        switch (name) {
+            case "hann":
+                return HANN;
+            case "hamming":
+                return HAMMING;
+            case "blackman-harris":
+                return BLACKMAN_HARRIS;
+        }
+        if (name.startsWith(KAISER_PREFIX)) {
+            try {
+                return kaiser(Double.parseDouble(name.substring(KAISER_PREFIX.length())));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Computes a coefficient of the window.
+     *
+     * @param n the time in the range {@code [0..windowLength)}
+     * @param windowLength the length of the window, which is at least 2
+     * @return the coefficient
+     */
+    protected abstract double compute(int n, int windowLength);
+
+    /**
+     * Returns the coefficients of the window for a window length. The array is shared and must
+     * not be modified.
+     *
+     * @param windowLength the length of the window
+     * @return the coefficients
+     */
+    public float[] getCoefficients(int windowLength) {
+        if (windowLength <= 0) {
+            throw new IllegalArgumentException("non-positive window length: " + windowLength);
+        }
+        synchronized (tables) {
+            float[] table = tables.get(windowLength);
+            if (table != null) {
+                return table;
+            }
+        }
+
+        float[] table = new float[windowLength];
+        if (windowLength == 1) {
+            table[0] = 1;
+        } else {
+            for (int n = 0; n < windowLength; n++) {
+                table[n] = (float) compute(n, windowLength);
+            }
+        }
+
+        if (windowLength <= MAX_CACHED_COEFFICIENTS) {
+            synchronized (tables) {
+                if (tables.put(windowLength, table) == null) {
+                    numCachedCoefficients += windowLength;
+                }
+                Iterator<Map.Entry<Integer, float[]>> it = tables.entrySet().iterator();
+                while (numCachedCoefficients > MAX_CACHED_COEFFICIENTS && it.hasNext()) {
+                    numCachedCoefficients -= it.next().getValue().length;
+                    it.remove();
+                }
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public float apply(int n, int windowLength) {
+        return getCoefficients(windowLength)[n];
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * A window of the form {@code a0 - a1 cos(2 pi x) + a2 cos(4 pi x) - ...}.
+     */
+    private static class CosineSumWindow extends TabulatedWindow {
+        private final double[] a;
+
+        CosineSumWindow(String name, double... a) {
+            super(name);
+            this.a = a;
+        }
+
+        @Override
+        protected double compute(int n, int windowLength) {
+            double x = 2 * Math.PI * n / (windowLength - 1);
+            double w = a[0];
+            for (int k = 1; k < a.length; k++) {
+                double term = a[k] * Math.cos(k * x);
+                w += k % 2 == 0 ? term : -term;
+            }
+            return w;
+        }
+    }
+
+    private static class KaiserWindow extends TabulatedWindow {
+        private final double beta;
+        private final double i0Beta;
+
+        KaiserWindow(double beta) {
+            super(KAISER_PREFIX + beta);
+            this.beta = beta;
+            i0Beta = besselI0(beta);
+        }
+
+        @Override
+        protected double compute(int n, int windowLength) {
+            double x = 2.0 * n / (windowLength - 1) - 1;
+            return besselI0(beta * Math.sqrt(Math.max(0, 1 - x * x))) / i0Beta;
+        }
+
+        /**
+         * Computes the zeroth order modified Bessel function of the first kind by its power
+         * series, which converges quickly for the arguments of a Kaiser window.
+         */
+        private static double besselI0(double x) {
+            double sum = 1;
+            double term = 1;
+            double halfX = x / 2;
+            for (int k = 1; term > 1e-12 * sum; k++) {
+                term *= (halfX / k) * (halfX / k);
+                sum += term;
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Measures how far a signal is from a single target frequency by evaluating only a handful of
+ * bins around the target and its first harmonics, instead of computing a whole spectrum. Bins
+ * are spaced evenly in cents, and harmonic {@code h} is evaluated over the most recent
+ * {@code 1 / h} of the window so that every harmonic has the same resolution in cents. The
+ * magnitudes of the harmonics are summed and the deviation is found by parabolic interpolation
+ * of the log magnitudes around the strongest bin. Harmonics whose bins would reach above the
+ * Nyquist frequency are left out, so high targets are measured with fewer harmonics, down to
+ * just the fundamental.
+ * <p/>
+ * Each bin is a sliding DFT that {@link #write} advances by the new samples only, so
+ * {@link #analyze()} takes time proportional to the number of bins rather than the window
+ * length. The Hann window is applied in the frequency domain by combining each bin with two
+ * neighbors one window resolution apart. To bound the rounding error that accumulates in the
+ * recurrences, one sliding sum at a time is recomputed from the history, so that each is
+ * recomputed about every {@link #REANCHOR_PERIOD} samples.
+ * <p/>
+ * Analysis does not allocate. Instances are not thread-safe.
+ */
+public class TargetedPitchAnalyzer {
+    public static final int DEFAULT_NUM_HARMONICS = 3;
+    public static final double DEFAULT_BIN_SPACING_CENTS = 25;
+
+    /**
+     * The number of bins on either side of the target. Interpolation needs a bin on either side
+     * of the peak, so deviations of a little over {@code (BINS_PER_SIDE - 1) * binSpacingCents}
+     * cents can be measured.
+     */
+    public static final int BINS_PER_SIDE = 3;
+
+    /**
+     * The number of samples after which every sliding sum has been recomputed from the history.
+     */
+    public static final int REANCHOR_PERIOD = 1 << 20;
+
+    /**
+     * The longest window, in seconds, which bounds the latency for low targets at the expense of
+     * resolution.
+     */
+    private static final double MAX_WINDOW_SECONDS = 1;
+
+    private static final int NUM_BINS = 2 * BINS_PER_SIDE + 1;
+
+    /**
+     * The sliding sums of each bin: one window resolution below, at and above the bin frequency.
+     */
+    private static final int TERMS_PER_BIN = 3;
+    private static final int SUMS_PER_HARMONIC = NUM_BINS * TERMS_PER_BIN;
+
+    private final double sampleRate;
+    private final int maxNumHarmonics;
+    private final double binSpacingCents;
+    private final float[] history;
+    private final double[] summedMagnitudes = new double[NUM_BINS];
+
+    private double targetFrequency;
+    private int numHarmonics;
+    private int[] windowLengths;
+    private double[] gains;
+
+    // Per harmonic: the phase factor e^(j 2 pi / N) that aligns the neighboring terms
+    private double[] shiftRe;
+    private double[] shiftIm;
+
+    // Per sliding sum, indexed by (h * NUM_BINS + b) * TERMS_PER_BIN + t, the sum
+    // S(n) = sum over the last N samples x(i) e^(jw(n - i)), which follows
+    // S(n) = e^(jw) S(n - 1) + x(n) - e^(jwN) x(n - N)
+    private double[] sumRe;
+    private double[] sumIm;
+    private double[] rotationRe;
+    private double[] rotationIm;
+    private double[] expiryRe;
+    private double[] expiryIm;
+
+    private int writeIndex;
+    private int numWritten;
+    private int reanchorInterval;
+    private int samplesSinceReanchor;
+    private int nextReanchoredSum;
+    private double minMagnitude;
+
+    private double cents;
+    private double magnitude;
+
+    /**
+     * Creates an analyzer with {@link #DEFAULT_NUM_HARMONICS} harmonics and bins spaced
+     * {@link #DEFAULT_BIN_SPACING_CENTS} cents apart.
+     *
+     * @param sampleRate the sample rate
+     * @param targetFrequency the frequency to measure deviations from
+     */
+    public TargetedPitchAnalyzer(double sampleRate, double targetFrequency) {
+        this(sampleRate, targetFrequency, DEFAULT_NUM_HARMONICS, DEFAULT_BIN_SPACING_CENTS);
+    }
+
+    /**
+     * Creates an analyzer.
+     *
+     * @param sampleRate the sample rate
+     * @param targetFrequency the frequency to measure deviations from
+     * @param numHarmonics the number of harmonics to evaluate, including the fundamental, if
+     * they are below the Nyquist frequency
+     * @param binSpacingCents the spacing between bins in cents, which is also roughly the
+     * resolution of the window
+     */
+    public TargetedPitchAnalyzer(double sampleRate, double targetFrequency, int numHarmonics,
+                                 double binSpacingCents) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("non-positive sample rate: " + sampleRate);
+        }
+        if (numHarmonics <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive number of harmonics: " + numHarmonics);
+        }
+        if (!(binSpacingCents > 0)) {
+            throw new IllegalArgumentException("non-positive bin spacing: " + binSpacingCents);
+        }
+        this.sampleRate = sampleRate;
+        this.maxNumHarmonics = numHarmonics;
+        this.binSpacingCents = binSpacingCents;
+        history = new float[(int) (MAX_WINDOW_SECONDS * sampleRate)];
+        setTargetFrequency(targetFrequency);
+    }
+
+    /**
+     * Returns the highest target frequency whose bins stay at or below the Nyquist frequency.
+     *
+     * @param sampleRate the sample rate
+     * @param binSpacingCents the spacing between bins in cents
+     * @return the maximum target frequency
+     */
+    public static double getMaxTargetFrequency(double sampleRate, double binSpacingCents) {
+        return sampleRate / 2 / Math.pow(2, BINS_PER_SIDE * binSpacingCents / 1200);
+    }
+
+    /**
+     * Returns the highest target frequency of an analyzer with bins spaced
+     * {@link #DEFAULT_BIN_SPACING_CENTS} cents apart.
+     *
+     * @param sampleRate the sample rate
+     * @return the maximum target frequency
+     */
+    public static double getMaxTargetFrequency(double sampleRate) {
+        return getMaxTargetFrequency(sampleRate, DEFAULT_BIN_SPACING_CENTS);
+    }
+
+    /**
+     * Changes the target frequency. Samples that have already been written are kept, and the
+     * sliding sums are recomputed from them.
+     *
+     * @param targetFrequency the frequency to measure deviations from, which must be at most
+     * {@link #getMaxTargetFrequency(double, double)}
+     */
+    public void setTargetFrequency(double targetFrequency) {
+        double maxTargetFrequency = getMaxTargetFrequency(sampleRate, binSpacingCents);
+        if (!(targetFrequency > 0 && targetFrequency <= maxTargetFrequency)) {
+            throw new IllegalArgumentException("invalid target frequency: " + targetFrequency);
+        }
+        this.targetFrequency = targetFrequency;
+        numHarmonics = Math.min(maxNumHarmonics,
+                (int) Math.floor(maxTargetFrequency / targetFrequency));
+
+        // One bin of the window is one bin spacing at the fundamental.
+        double binSpacingRatio = Math.pow(2, binSpacingCents / 1200);
+        int fundamentalWindowLength = Math.min(history.length, (int) Math.ceil(
+                sampleRate / (targetFrequency * (binSpacingRatio - 1))));
+
+        windowLengths = new int[numHarmonics];
+        gains = new double[numHarmonics];
+        shiftRe = new double[numHarmonics];
+        shiftIm = new double[numHarmonics];
+        int numSums = numHarmonics * SUMS_PER_HARMONIC;
+        sumRe = new double[numSums];
+        sumIm = new double[numSums];
+        rotationRe = new double[numSums];
+        rotationIm = new double[numSums];
+        expiryRe = new double[numSums];
+        expiryIm = new double[numSums];
+        for (int h = 0; h < numHarmonics; h++) {
+            int windowLength = Math.max(1, fundamentalWindowLength / (h + 1));
+            windowLengths[h] = windowLength;
+            // Scales magnitudes to the amplitude of a sinusoid, since a Hann window sums to N / 2.
+            gains[h] = 4.0 / windowLength;
+
+            double resolution = 2 * Math.PI / windowLength;
+            shiftRe[h] = Math.cos(resolution);
+            shiftIm[h] = Math.sin(resolution);
+            for (int b = 0; b < NUM_BINS; b++) {
+                double frequency = (h + 1) * targetFrequency
+                        * Math.pow(binSpacingRatio, b - BINS_PER_SIDE);
+                double w = 2 * Math.PI * frequency / sampleRate;
+                for (int t = 0; t < TERMS_PER_BIN; t++) {
+                    int i = (h * NUM_BINS + b) * TERMS_PER_BIN + t;
+                    double termW = w + (t - 1) * resolution;
+                    rotationRe[i] = Math.cos(termW);
+                    rotationIm[i] = Math.sin(termW);
+                    expiryRe[i] = Math.cos(termW * windowLength);
+                    expiryIm[i] = Math.sin(termW * windowLength);
+                }
+            }
+        }
+
+        reanchorInterval = Math.max(1, REANCHOR_PERIOD / numSums);
+        samplesSinceReanchor = 0;
+        nextReanchoredSum = 0;
+        for (int i = 0; i < numSums; i++) {
+            reanchor(i);
+        }
+    }
+
+    public double getTargetFrequency() {
+        return targetFrequency;
+    }
+
+    /**
+     * Returns the number of harmonics that are evaluated for the current target, which is
+     * fewer than requested if the higher ones would reach above the Nyquist frequency.
+     *
+     * @return the number of harmonics, including the fundamental
+     */
+    public int getNumHarmonics() {
+        return numHarmonics;
+    }
+
+    /**
+     * Returns the number of samples that must be written before a full analysis is possible.
+     *
+     * @return the window length of the fundamental
+     */
+    public int getWindowLength() {
+        return windowLengths[0];
+    }
+
+    /**
+     * @param minMagnitude the amplitude that the target must reach for a deviation to be
+     * measured
+     */
+    public void setMinMagnitude(double minMagnitude) {
+        this.minMagnitude = minMagnitude;
+    }
+
+    /**
+     * Appends samples to the history and advances the sliding sums by them.
+     *
+     * @param samples the samples to write
+     * @param offset the offset of the first sample
+     * @param length the number of samples
+     */
+    public void write(float[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds");
+        }
+        for (int n = offset; n < offset + length; n++) {
+            double x = samples[n];
+            for (int h = 0; h < numHarmonics; h++) {
+                int windowLength = windowLengths[h];
+                double expired = 0;
+                if (numWritten >= windowLength) {
+                    int i = writeIndex - windowLength;
+                    expired = history[i < 0 ? i + history.length : i];
+                }
+                int end = (h + 1) * SUMS_PER_HARMONIC;
+                for (int i = h * SUMS_PER_HARMONIC; i < end; i++) {
+                    double re = sumRe[i];
+                    double im = sumIm[i];
+                    sumRe[i] = rotationRe[i] * re - rotationIm[i] * im + x
+                            - expiryRe[i] * expired;
+                    sumIm[i] = rotationRe[i] * im + rotationIm[i] * re
+                            - expiryIm[i] * expired;
+                }
+            }
+            history[writeIndex] = (float) x;
+            if (++writeIndex == history.length) {
+                writeIndex = 0;
+            }
+            if (numWritten < history.length) {
+                numWritten++;
+            }
+            if (++samplesSinceReanchor >= reanchorInterval) {
+                samplesSinceReanchor = 0;
+                reanchor(nextReanchoredSum);
+                nextReanchoredSum = (nextReanchoredSum + 1) % sumRe.length;
+            }
+        }
+    }
+
+    /**
+     * Recomputes a sliding sum from the history with Horner's method, which discards the
+     * rounding error that the recurrence has accumulated.
+     *
+     * @param i the index of the sum
+     */
+    private void reanchor(int i) {
+        int windowLength = windowLengths[i / SUMS_PER_HARMONIC];
+        int count = Math.min(windowLength, numWritten);
+        int j = writeIndex - count;
+        if (j < 0) {
+            j += history.length;
+        }
+        double cRe = rotationRe[i];
+        double cIm = rotationIm[i];
+        double re = 0;
+        double im = 0;
+        for (int n = 0; n < count; n++) {
+            double r = cRe * re - cIm * im + history[j];
+            im = cRe * im + cIm * re;
+            re = r;
+            if (++j == history.length) {
+                j = 0;
+            }
+        }
+        sumRe[i] = re;
+        sumIm[i] = im;
+    }
+
+    /**
+     * Analyzes the most recent samples.
+     *
+     * @return whether the signal near the target is strong enough and its peak is close enough
+     * to the target to be measured
+     */
+    public boolean analyze() {
+        cents = Double.NaN;
+        magnitude = 0;
+        if (numWritten < windowLengths[0]) {
+            return false;
+        }
+
+        for (int b = 0; b < NUM_BINS; b++) {
+            summedMagnitudes[b] = 0;
+        }
+        for (int h = 0; h < numHarmonics; h++) {
+            // Hann window: 0.5 S(w) - 0.25 e^(-j 2 pi / N) S(w - 2 pi / N)
+            // - 0.25 e^(j 2 pi / N) S(w + 2 pi / N)
+            double cRe = shiftRe[h];
+            double cIm = shiftIm[h];
+            for (int b = 0; b < NUM_BINS; b++) {
+                int i = (h * NUM_BINS + b) * TERMS_PER_BIN;
+                double re = 0.5 * sumRe[i + 1]
+                        - 0.25 * (cRe * sumRe[i] + cIm * sumIm[i])
+                        - 0.25 * (cRe * sumRe[i + 2] - cIm * sumIm[i + 2]);
+                double im = 0.5 * sumIm[i + 1]
+                        - 0.25 * (cRe * sumIm[i] - cIm * sumRe[i])
+                        - 0.25 * (cRe * sumIm[i + 2] + cIm * sumRe[i + 2]);
+                double m = gains[h] * Math.sqrt(re * re + im * im);
+                summedMagnitudes[b] += m;
+                if (h == 0) {
+                    magnitude = Math.max(magnitude, m);
+                }
+            }
+        }
+
+        int peak = 0;
+        for (int b = 1; b < NUM_BINS; b++) {
+            if (summedMagnitudes[b] > summedMagnitudes[peak]) {
+                peak = b;
+            }
+        }
+        if (magnitude < minMagnitude || summedMagnitudes[peak] <= 0
+                || peak == 0 || peak == NUM_BINS - 1) {
+            return false;
+        }
+
+        double left = Math.log(summedMagnitudes[peak - 1] + Double.MIN_NORMAL);
+        double center = Math.log(summedMagnitudes[peak]);
+        double right = Math.log(summedMagnitudes[peak + 1] + Double.MIN_NORMAL);
+        double denominator = left - 2 * center + right;
+        double delta = denominator < 0 ? 0.5 * (left - right) / denominator : 0;
+        cents = (peak - BINS_PER_SIDE + delta) * binSpacingCents;
+        return true;
+    }
+
+    /**
+     * Returns the deviation from the target found by the last analysis.
+     *
+     * @return the deviation in cents, or {@link Double#NaN} if none was measured
+     */
+    public double getCents() {
+        return cents;
+    }
+
+    /**
+     * Returns the magnitude of the target found by the last analysis.
+     *
+     * @return the amplitude of the strongest bin around the fundamental, as the amplitude of a
+     * sinusoid
+     */
+    public double getMagnitude() {
+        return magnitude;
+    }
+
+    /**
+     * Discards the history.
+     */
+    public void reset() {
+        writeIndex = 0;
+        numWritten = 0;
+        Arrays.fill(sumRe, 0);
+        Arrays.fill(sumIm, 0);
+    }
+}
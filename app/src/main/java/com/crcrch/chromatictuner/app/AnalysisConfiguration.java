@@ -8,10 +8,16 @@ import android.media.MediaRecorder;
 import android.os.Build;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.crcrch.chromatictuner.analysis.ConstantQKernelStore;
+import com.crcrch.chromatictuner.analysis.ConstantQTransform;
+import com.crcrch.chromatictuner.analysis.TabulatedWindow;
+import com.crcrch.chromatictuner.analysis.TargetedPitchAnalyzer;
 import com.crcrch.chromatictuner.util.MiscMath;
 import com.crcrch.chromatictuner.util.MiscMusic;
 import com.crcrch.chromatictuner.util.SharedPreferencesUtils;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,12 +28,34 @@ public class AnalysisConfiguration {
     private static final String PREF_FREQ_BIN_RATIO = "frequency bin ratio";
     private static final String PREF_MIN_FREQ_BIN = "minimum frequency bin";
     private static final String PREF_NUM_FREQUENCY_BINS = "number of frequency bins";
+    private static final String PREF_CONSTANT_Q_FRAMES_PER_SECOND = "constant Q frames per second";
+    private static final String PREF_OCTAVE_WISE_CONSTANT_Q = "octave-wise constant Q";
+    private static final String PREF_PARALLEL_CONSTANT_Q = "parallel constant Q";
+    private static final String PREF_SLIDING_CONSTANT_Q = "sliding constant Q";
+    private static final String PREF_CONSTANT_Q_WINDOW = "constant Q window";
+    private static final String PREF_PITCH_ENGINE = "pitch engine";
+    private static final String PREF_GRAPH_RENDER_THREAD = "graph render thread";
+
+    public static final String PITCH_ENGINE_MCLEOD = "mcleod";
+    public static final String PITCH_ENGINE_CONSTANT_Q = "constant Q";
 
     private static final int FALLBACK_SAMPLE_RATE = 44100; // guaranteed to be available
     private static final double DEFAULT_TUNING_FREQUENCY = MiscMusic.A4;
     private static final double DEFAULT_FREQ_BIN_RATIO =
             Math.pow(2, 1.0 / MiscMusic.CHROMATIC_SCALE.length);
     private static final int DEFAULT_NUM_FREQUENCY_BINS = 2 * MiscMusic.CHROMATIC_SCALE.length + 1;
+    private static final int DEFAULT_CONSTANT_Q_FRAMES_PER_SECOND = 60;
+    private static final String NO_WINDOW = "none";
+    private static final TabulatedWindow DEFAULT_CONSTANT_Q_WINDOW = TabulatedWindow.HAMMING;
+    private static final ConstantQTransform.FftSizePolicy CONSTANT_Q_FFT_SIZE_POLICY =
+            ConstantQTransform.FftSizePolicy.POWER_OF_TWO;
+    private static final String KERNEL_STORE_DIRECTORY = "kernels";
+    private static final String DEFAULT_PITCH_ENGINE = PITCH_ENGINE_MCLEOD;
+    private static final int SPECTROGRAM_HISTORY_SECONDS = 5 * 60;
+
+    // From just below the low E of a bass guitar to the top of most melodic instruments
+    private static final double MIN_PITCH_FREQUENCY = 40;
+    private static final double MAX_PITCH_FREQUENCY = 2000;
 
     private static final int[] UNVERIFIED_SAMPLE_RATES = new int[] {
             8000, 11025, 16000, 22050, 32000, 37800, 44056, 47250, 48000, 50000, 50400, 88200,
@@ -117,10 +145,154 @@ public class AnalysisConfiguration {
         return guessSampleRateToUse() / 2;
     }
 
+    /**
+     * Returns the highest tuning frequency that deviations can be measured from.
+     *
+     * @return the maximum tuning frequency
+     */
+    public double getMaxTuningFrequency() {
+        return TargetedPitchAnalyzer.getMaxTargetFrequency(guessSampleRateToUse());
+    }
+
     public int getNumFrequencyBins() {
         return pref.getInt(PREF_NUM_FREQUENCY_BINS, DEFAULT_NUM_FREQUENCY_BINS);
     }
 
+    public int getConstantQFramesPerSecond() {
+        return pref.getInt(PREF_CONSTANT_Q_FRAMES_PER_SECOND, DEFAULT_CONSTANT_Q_FRAMES_PER_SECOND);
+    }
+
+    /**
+     * Returns the number of samples between the starts of consecutive constant Q frames.
+     *
+     * @param sampleRate the sample rate that audio is recorded at
+     * @return the hop size
+     */
+    public int getConstantQHopSize(int sampleRate) {
+        return Math.max(1, sampleRate / getConstantQFramesPerSecond());
+    }
+
+    /**
+     * Returns the number of constant Q frames that the spectrogram keeps, which covers several
+     * minutes.
+     *
+     * @param sampleRate the sample rate that audio is recorded at
+     * @return the capacity of the spectrogram history
+     */
+    public int getSpectrogramHistoryCapacity(int sampleRate) {
+        return SPECTROGRAM_HISTORY_SECONDS
+                * MiscMath.divideRoundingUp(sampleRate, getConstantQHopSize(sampleRate));
+    }
+
+    /**
+     * Returns whether the constant Q transform should be computed one octave at a time on
+     * successively decimated signals. This only applies when the frequency bin ratio is an
+     * integral root of 2.
+     *
+     * @return whether to use the octave-wise constant Q transform
+     */
+    public boolean useOctaveWiseConstantQ() {
+        return pref.getBoolean(PREF_OCTAVE_WISE_CONSTANT_Q, false);
+    }
+
+    /**
+     * Returns whether the constant Q transform should be computed with a sliding DFT, which
+     * updates the bins with every sample and suits high frame rates with few bins. It always
+     * uses a Hann window.
+     *
+     * @return whether to use the sliding constant Q transform
+     */
+    public boolean useSlidingConstantQ() {
+        return pref.getBoolean(PREF_SLIDING_CONSTANT_Q, false);
+    }
+
+    /**
+     * Returns whether the spectral kernel of the constant Q transform may be multiplied on
+     * several threads. Even if so, the kernel must also be large enough for it to pay off.
+     *
+     * @return whether to allow a parallel constant Q transform
+     * @see com.crcrch.chromatictuner.analysis.ConstantQTransform#setWorkerPool
+     */
+    public boolean useParallelConstantQ() {
+        return pref.getBoolean(PREF_PARALLEL_CONSTANT_Q, true);
+    }
+
+    /**
+     * Returns the window function to build constant Q kernels with. The window is stored by
+     * its {@link TabulatedWindow#getName() name}, or {@code "none"} for a rectangular window.
+     *
+     * @return the window, or null for a rectangular window
+     */
+    @Nullable
+    public TabulatedWindow getConstantQWindow() {
+        String name = pref.getString(PREF_CONSTANT_Q_WINDOW, DEFAULT_CONSTANT_Q_WINDOW.getName());
+        if (NO_WINDOW.equals(name)) {
+            return null;
+        }
+        TabulatedWindow window = TabulatedWindow.forName(name);
+        return window != null ? window : DEFAULT_CONSTANT_Q_WINDOW;
+    }
+
+    public ConstantQTransform.FftSizePolicy getConstantQFftSizePolicy() {
+        return CONSTANT_Q_FFT_SIZE_POLICY;
+    }
+
+    /**
+     * Creates a builder for a half spectrum constant Q transform with the configured window,
+     * kernel threshold and FFT size policy.
+     *
+     * @param sampleRate the sample rate
+     * @param minFreq the minimum frequency to compute
+     * @param r the geometric ratio between neighboring frequencies
+     * @param numConstantQBins the number of coefficients to compute
+     * @return the builder
+     */
+    public ConstantQTransform.Builder createConstantQBuilder(double sampleRate, double minFreq,
+                                                             double r, int numConstantQBins) {
+        return new ConstantQTransform.Builder(sampleRate, minFreq, r, numConstantQBins)
+                .setWindow(getConstantQWindow())
+                .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD)
+                .setHalfSpectrum(true)
+                .setFftSizePolicy(getConstantQFftSizePolicy());
+    }
+
+    /**
+     * Returns the store that persists constant Q kernels between runs of the app.
+     *
+     * @return the kernel store
+     */
+    public ConstantQKernelStore getConstantQKernelStore() {
+        return new ConstantQKernelStore(new File(context.getCacheDir(), KERNEL_STORE_DIRECTORY));
+    }
+
+    /**
+     * Returns the pitch engine of the tuner, either {@link #PITCH_ENGINE_MCLEOD}, which responds
+     * within tens of milliseconds, or {@link #PITCH_ENGINE_CONSTANT_Q}.
+     *
+     * @return the name of the pitch engine
+     */
+    public String getPitchEngine() {
+        return pref.getString(PREF_PITCH_ENGINE, DEFAULT_PITCH_ENGINE);
+    }
+
+    /**
+     * Returns whether graphs should be drawn on a dedicated render thread into a surface
+     * instead of on the UI thread, which keeps them smooth when the UI thread is busy.
+     *
+     * @return whether to use a render thread for graphs
+     */
+    public boolean useGraphRenderThread() {
+        return pref.getBoolean(PREF_GRAPH_RENDER_THREAD, false);
+    }
+
+    public double getMinPitchFrequency() {
+        return MIN_PITCH_FREQUENCY;
+    }
+
+    public double getMaxPitchFrequency() {
+        return Math.min(MAX_PITCH_FREQUENCY, getMaxFrequency() / 2);
+    }
+
     public double getFrequencyBinRatio() {
         return SharedPreferencesUtils.getDouble(pref, PREF_FREQ_BIN_RATIO, DEFAULT_FREQ_BIN_RATIO);
     }
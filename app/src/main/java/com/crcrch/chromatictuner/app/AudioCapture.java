@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.app;
+
+import android.media.AudioRecord;
+import android.os.Process;
+import android.util.Log;
+import com.crcrch.chromatictuner.util.FloatRingBuffer;
+
+/**
+ * Records audio on a dedicated thread into a {@link FloatRingBuffer}, so that recording keeps up
+ * with the hardware no matter how long the analysis of each block takes. If the analysis falls
+ * behind by more than the capacity of the ring buffer, samples are dropped and counted as
+ * overruns instead of overflowing the buffer of the {@link AudioRecord}. While the reader is
+ * paused, the capture thread keeps draining the audio source but discards what it records, so
+ * that pauses are not counted as overruns.
+ * <p/>
+ * Only one thread may read from an instance.
+ */
+public class AudioCapture {
+    private static final String TAG = "AudioCapture";
+
+    /**
+     * The minimum amount of audio that the ring buffer can hold.
+     */
+    private static final double BUFFER_SECONDS = 1;
+
+    private final AudioRecord audioRecord;
+    private final PcmFloatReader pcmFloatReader;
+    private final FloatRingBuffer ringBuffer;
+    private final float[] block;
+    private final Thread thread;
+
+    private volatile boolean stopped;
+    private volatile boolean paused;
+    private volatile int error;
+
+    /**
+     * Creates a capture of an {@link AudioRecord} that has not started recording.
+     *
+     * @param audioRecord the audio source, which is released by {@link #stop()}
+     * @param blockSize the number of samples to read from the audio source at a time
+     */
+    public AudioCapture(AudioRecord audioRecord, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("non-positive block size: " + blockSize);
+        }
+        this.audioRecord = audioRecord;
+        pcmFloatReader = new PcmFloatReader(audioRecord, blockSize);
+        ringBuffer = new FloatRingBuffer(Math.max(4 * blockSize,
+                (int) (BUFFER_SECONDS * audioRecord.getSampleRate())));
+        block = new float[blockSize];
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                capture();
+            }
+        }, TAG);
+    }
+
+    public int getSampleRate() {
+        return audioRecord.getSampleRate();
+    }
+
+    /**
+     * Starts recording on the capture thread.
+     */
+    public void start() {
+        audioRecord.startRecording();
+        thread.start();
+    }
+
+    private void capture() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        try {
+            while (!stopped) {
+                int n = pcmFloatReader.read(block, 0, block.length);
+                if (n < 0) {
+                    if (!stopped) {
+                        error = n;
+                    }
+                    break;
+                }
+                if (!paused) {
+                    ringBuffer.write(block, 0, n);
+                }
+            }
+        } finally {
+            ringBuffer.close();
+        }
+    }
+
+    /**
+     * Reads the next samples that have been recorded, waiting for them if necessary.
+     *
+     * @param output the array to read the samples into
+     * @param offset the index in the array of the first sample
+     * @param length the number of samples to read
+     * @return the number of samples that were read, or the negative error code of
+     * {@link AudioRecord} if recording failed
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public int read(float[] output, int offset, int length) throws InterruptedException {
+        int n = ringBuffer.readFully(output, offset, length);
+        if (n < length && error < 0) {
+            return error;
+        }
+        return n;
+    }
+
+    /**
+     * Stops passing recorded samples to the reader until {@link #resume()} is called. Must be
+     * called by the reader.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Resumes passing recorded samples to the reader, discarding those that were recorded but
+     * not read before the pause. Must be called by the reader.
+     */
+    public void resume() {
+        paused = false;
+        ringBuffer.skip(ringBuffer.available());
+    }
+
+    /**
+     * Returns the number of times that samples were dropped because the reader fell behind.
+     *
+     * @return the number of overruns
+     */
+    public long getOverrunCount() {
+        return ringBuffer.getOverrunCount();
+    }
+
+    /**
+     * Returns the total number of samples dropped because the reader fell behind.
+     *
+     * @return the number of dropped samples
+     */
+    public long getDroppedSampleCount() {
+        return ringBuffer.getDroppedSampleCount();
+    }
+
+    /**
+     * Stops recording, waits for the capture thread to finish and releases the audio source.
+     */
+    public void stop() {
+        stopped = true;
+        audioRecord.stop();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        audioRecord.release();
+        Log.d(TAG, "Stopped with " + getOverrunCount() + " overruns dropping "
+                + getDroppedSampleCount() + " samples");
+    }
+}
@@ -21,18 +21,40 @@ import android.media.AudioRecord;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.app.ActionBar;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ProgressBar;
 import com.crcrch.chromatictuner.PowerSpectrumFragment;
+import com.crcrch.chromatictuner.SpectrogramView;
+import com.crcrch.chromatictuner.analysis.ConstantQKernelCache;
+import com.crcrch.chromatictuner.analysis.ConstantQKernelStore;
+import com.crcrch.chromatictuner.analysis.ConstantQPitchDetector;
+import com.crcrch.chromatictuner.analysis.ConstantQStream;
 import com.crcrch.chromatictuner.analysis.ConstantQTransform;
+import com.crcrch.chromatictuner.analysis.OctaveConstantQTransform;
+import com.crcrch.chromatictuner.analysis.PitchEstimate;
+import com.crcrch.chromatictuner.analysis.SlidingConstantQTransform;
+import com.crcrch.chromatictuner.analysis.StreamingConstantQTransform;
+import com.crcrch.chromatictuner.analysis.TabulatedWindow;
 import com.crcrch.chromatictuner.util.AnimationUtils;
+import com.crcrch.chromatictuner.util.MiscMusic;
 import com.crcrch.chromatictuner.util.MyAsyncTask;
+import com.crcrch.chromatictuner.util.SpectrogramHistory;
+import com.crcrch.chromatictuner.util.TripleBuffer;
+import com.crcrch.chromatictuner.util.WorkerPool;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ConstantQActivity extends RecordAudioActivity<Void, Integer, Void> {
     // The reference sound pressure level.
@@ -53,7 +75,27 @@ public class ConstantQActivity extends RecordAudioActivity<Void, Integer, Void>
 
     private static final String STATE_USER_PAUSED = "userPaused";
 
+    // The range of the spectrogram colors, which matches the range of the power spectrum graph
+    private static final float SPECTROGRAM_MIN_DB = 0;
+    private static final float SPECTROGRAM_MAX_DB = 120;
+
+    /**
+     * Computes spectral kernels in parallel. The threads exit when idle, since kernels are only
+     * computed when the analysis starts and are usually loaded from the cache instead.
+     */
+    private static final Executor KERNEL_EXECUTOR;
+
+    static {
+        int numProcessors = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numProcessors, numProcessors,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        KERNEL_EXECUTOR = executor;
+    }
+
     private PowerSpectrumFragment powerSpectrumFrag;
+    private SpectrogramView spectrogramView;
+    private View spectraView;
     private AnalysisConfiguration analysisConfig;
     private int shortAnimationDuration;
     private ProgressBar loadingView;
@@ -79,6 +121,8 @@ public class ConstantQActivity extends RecordAudioActivity<Void, Integer, Void>
 
         powerSpectrumFrag = (PowerSpectrumFragment) getSupportFragmentManager().findFragmentById(
                 R.id.power_spectrum);
+        spectrogramView = (SpectrogramView) findViewById(R.id.spectrogram);
+        spectraView = findViewById(R.id.spectra);
         pausePlay = (FloatingActionButton) findViewById(R.id.floating_toggle);
     }
 
@@ -119,7 +163,7 @@ public class ConstantQActivity extends RecordAudioActivity<Void, Integer, Void>
 
     @Override
     protected void onAudioRecordPermissionGranted() {
-        AnimationUtils.switchOutIn(powerSpectrumFrag.getView(), loadingView);
+        AnimationUtils.switchOutIn(spectraView, loadingView);
         super.onAudioRecordPermissionGranted();
     }
 
@@ -167,6 +211,17 @@ public class ConstantQActivity extends RecordAudioActivity<Void, Integer, Void>
         private final double freqBinRatio;
         private final double minFreqBin;
         private final int numFreqBins;
+        // Written by the analysis thread, handed off through publishedPitch and read on the UI
+        // thread from shownPitch, so that the readout never mixes fields of different frames
+        private final PitchEstimate pitchEstimate = new PitchEstimate();
+        private final PitchEstimate publishedPitch = new PitchEstimate();
+        private final PitchEstimate shownPitch = new PitchEstimate();
+        // Whether a readout update has been posted but not yet run
+        private final AtomicBoolean pitchPending = new AtomicBoolean();
+        @Nullable
+        private WorkerPool workerPool;
+        private TripleBuffer spectra;
+        private SpectrogramHistory spectrogram;
 
         public AudioAnalyzer(double minFreqBin, double freqBinRatio, int numFreqBins) {
             this.freqBinRatio = freqBinRatio;
@@ -192,54 +247,154 @@ public class ConstantQActivity extends RecordAudioActivity<Void, Integer, Void>
 
             int sampleRate = audioRecord.getSampleRate();
 
-            Log.d(TAG, "Will use FFT of size "
-                    + ConstantQTransform.getFftSize(sampleRate, minFreqBin, freqBinRatio));
-            ConstantQTransform constantQ = new ConstantQTransform(null, sampleRate, minFreqBin,
-                    freqBinRatio, numFreqBins);
-            int numSamples = constantQ.getFftSize();
+            int hopSize = analysisConfig.getConstantQHopSize(sampleRate);
+            ConstantQStream stream = createConstantQStream(sampleRate, hopSize);
+            Log.d(TAG, "Will compute a frame every " + hopSize + " samples");
 
-            float[] data = new float[2 * numSamples];
-            float[] powerSpectrum = new float[constantQ.getNumCoefficients()];
+            float[] data = new float[hopSize];
+            spectra = new TripleBuffer(stream.getNumCoefficients());
+            spectrogram = new SpectrogramHistory(stream.getNumCoefficients(),
+                    analysisConfig.getSpectrogramHistoryCapacity(sampleRate), SPECTROGRAM_MIN_DB,
+                    SPECTROGRAM_MAX_DB);
+            ConstantQPitchDetector pitchDetector = new ConstantQPitchDetector(stream,
+                    analysisConfig.getDefaultTuningFrequency());
 
             publishProgress(0);
 
             try {
                 maybePause();
             } catch (InterruptedException e) {
+                shutDownWorkerPool();
                 return null;
             }
 
-            powerSpectrumFrag.configureSpectrum(constantQ.getRatio(), constantQ.getMinFrequency());
-            powerSpectrumFrag.setData(powerSpectrum);
-
-            PcmFloatReader pcmFloatReader = new PcmFloatReader(audioRecord, numSamples);
-            audioRecord.startRecording();
+            AudioCapture audioCapture = new AudioCapture(audioRecord, data.length);
+            audioCapture.start();
 
             while (!isCancelled()) {
+                int n;
                 try {
-                    maybePause();
+                    if (isPaused()) {
+                        audioCapture.pause();
+                        maybePause();
+                        audioCapture.resume();
+                    }
+                    n = audioCapture.read(data, 0, data.length);
                 } catch (InterruptedException e) {
                     break;
                 }
-                int n = pcmFloatReader.read(data, 0, numSamples);
                 if (n < 0) {
                     Log.e(TAG, "AudioRecord read error " + n);
                     publishProgress(-1);
                     break;
                 }
 
-                constantQ.realConstantQPowerDbFull(data, powerSpectrum, P_0);
-
-                publishProgress(1);
+                int offset = 0;
+                while (offset < n) {
+                    offset += stream.write(data, offset, n - offset);
+                    if (stream.isFrameReady()) {
+                        float[] powerSpectrum = spectra.getBackBuffer();
+                        stream.realConstantQ(powerSpectrum,
+                                ConstantQTransform.OutputMode.FAST_POWER_DB, P_0);
+                        pitchDetector.detect(powerSpectrum, pitchEstimate);
+                        synchronized (publishedPitch) {
+                            publishedPitch.copyFrom(pitchEstimate);
+                        }
+                        spectrogram.add(powerSpectrum);
+                        spectra.publish();
+                        // The readout is posted independently of the graph, which may not be
+                        // taking frames
+                        if (pitchPending.compareAndSet(false, true)) {
+                            publishProgress(1);
+                        }
+                    }
+                }
             }
             Log.d(TAG, "Stopping audio analysis...");
-            audioRecord.stop();
-            audioRecord.release();
+            audioCapture.stop();
             //noinspection UnusedAssignment
             audioRecord = null;
+            Log.d(TAG, "Dropped " + spectra.getDroppedCount() + " of "
+                    + spectra.getPublishedCount() + " frames");
+            shutDownWorkerPool();
             return null;
         }
 
+        private void shutDownWorkerPool() {
+            if (workerPool != null) {
+                workerPool.shutdown();
+                workerPool = null;
+            }
+        }
+
+        private void updatePitch() {
+            ActionBar actionBar = getSupportActionBar();
+            if (actionBar == null) {
+                return;
+            }
+            synchronized (publishedPitch) {
+                shownPitch.copyFrom(publishedPitch);
+            }
+            if (shownPitch.isPitched()) {
+                actionBar.setSubtitle(getString(R.string.pitch_estimate,
+                        MiscMusic.CHROMATIC_SCALE[shownPitch.getPitchClass()],
+                        shownPitch.getOctave(), shownPitch.getCents()));
+            } else {
+                actionBar.setSubtitle(null);
+            }
+        }
+
+        private ConstantQStream createConstantQStream(int sampleRate, int hopSize) {
+            if (analysisConfig.useSlidingConstantQ()) {
+                SlidingConstantQTransform slidingConstantQ = new SlidingConstantQTransform(
+                        sampleRate, minFreqBin, freqBinRatio, numFreqBins, hopSize);
+                Log.d(TAG, "Will use a sliding DFT over " + slidingConstantQ.getWindowLength()
+                        + " samples");
+                return slidingConstantQ;
+            }
+
+            ConstantQKernelCache kernelCache = ConstantQKernelCache.getInstance();
+            ConstantQKernelStore kernelStore = analysisConfig.getConstantQKernelStore();
+
+            TabulatedWindow window = analysisConfig.getConstantQWindow();
+            int binsPerOctave = OctaveConstantQTransform.getBinsPerOctave(freqBinRatio);
+            if (analysisConfig.useOctaveWiseConstantQ() && binsPerOctave > 0
+                    && OctaveConstantQTransform.fitsPassband(sampleRate, minFreqBin,
+                    binsPerOctave, numFreqBins)) {
+                ConstantQTransform.Builder octaveKernelBuilder =
+                        OctaveConstantQTransform.createOctaveKernelBuilder(window, sampleRate,
+                                minFreqBin, binsPerOctave, numFreqBins,
+                                ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD)
+                                .setFftSizePolicy(analysisConfig.getConstantQFftSizePolicy())
+                                .setExecutor(KERNEL_EXECUTOR);
+                OctaveConstantQTransform octaveConstantQ = new OctaveConstantQTransform(
+                        kernelCache.getKernel(octaveKernelBuilder, kernelStore), numFreqBins,
+                        hopSize);
+                Log.d(TAG, "Will use " + octaveConstantQ.getNumOctaves() + " FFTs of size "
+                        + octaveConstantQ.getFftSize());
+                return octaveConstantQ;
+            }
+
+            ConstantQTransform.Builder builder = analysisConfig.createConstantQBuilder(sampleRate,
+                    minFreqBin, freqBinRatio, numFreqBins)
+                    .setExecutor(KERNEL_EXECUTOR);
+            ConstantQTransform constantQ = new ConstantQTransform(
+                    kernelCache.getKernel(builder, kernelStore));
+            Log.d(TAG, "Will use FFT of size " + constantQ.getFftSize() + " with resolution "
+                    + constantQ.getFftResolution() + " Hz and Q " + constantQ.getQ());
+
+            int numThreads = WorkerPool.getDefaultNumThreads();
+            if (analysisConfig.useParallelConstantQ() && numThreads > 0) {
+                workerPool = new WorkerPool(numThreads, "ConstantQWorker");
+                if (constantQ.setWorkerPool(workerPool)) {
+                    Log.d(TAG, "Will multiply the spectral kernel on "
+                            + workerPool.getParallelism() + " threads");
+                } else {
+                    shutDownWorkerPool();
+                }
+            }
+            return new StreamingConstantQTransform(constantQ, hopSize);
+        }
 
         @Override
         protected void onProgressUpdate(Integer... values) {
@@ -254,14 +409,18 @@ public class ConstantQActivity extends RecordAudioActivity<Void, Integer, Void>
                     return;
 
                 case 0:
-                    AnimationUtils.crossFade(loadingView, powerSpectrumFrag.getView(),
+                    powerSpectrumFrag.configureSpectrum(freqBinRatio, minFreqBin);
+                    powerSpectrumFrag.setFrames(spectra);
+                    spectrogramView.setHistory(spectrogram);
+                    AnimationUtils.crossFade(loadingView, spectraView,
                             shortAnimationDuration);
                     updatePausePlayButton();
                     pausePlay.show();
                     return;
 
                 case 1:
-                    powerSpectrumFrag.notifyDataSetChanged();
+                    pitchPending.set(false);
+                    updatePitch();
                     return;
 
                 default:
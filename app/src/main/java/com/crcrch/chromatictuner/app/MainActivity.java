@@ -31,10 +31,23 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
+import android.widget.TextView;
 import com.crcrch.chromatictuner.WaveformBeatsFragment;
+import com.crcrch.chromatictuner.analysis.ConstantQKernelCache;
+import com.crcrch.chromatictuner.analysis.ConstantQPitchEngine;
+import com.crcrch.chromatictuner.analysis.ConstantQTransform;
+import com.crcrch.chromatictuner.analysis.McLeodPitchEngine;
+import com.crcrch.chromatictuner.analysis.PitchEngine;
+import com.crcrch.chromatictuner.analysis.PitchEstimate;
+import com.crcrch.chromatictuner.analysis.StreamingConstantQTransform;
+import com.crcrch.chromatictuner.analysis.TargetedPitchAnalyzer;
 import com.crcrch.chromatictuner.util.AnimationUtils;
 import com.crcrch.chromatictuner.util.MiscMath;
+import com.crcrch.chromatictuner.util.MiscMusic;
 import com.crcrch.chromatictuner.util.MyAsyncTask;
+import com.crcrch.chromatictuner.util.TripleBuffer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
         implements NotePickerFragment.OnFrequencySelectedListener {
@@ -50,6 +63,8 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
     private LinearLayout analysisView;
 
     private WaveformBeatsFragment waveformFrag;
+    private TextView pitchReadout;
+    private TextView tuningReadout;
 
     private EditText freqInput;
     private double tuningFrequency;
@@ -76,6 +91,8 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
 
         waveformFrag = (WaveformBeatsFragment) getSupportFragmentManager().findFragmentById(
                 R.id.waveform);
+        pitchReadout = (TextView) findViewById(R.id.pitch_readout);
+        tuningReadout = (TextView) findViewById(R.id.tuning_readout);
 
         freqInput = (EditText) findViewById(R.id.tuning_frequency);
         setTuningFrequencyInputField(tuningFrequency);
@@ -99,10 +116,10 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
                         freqInput.setError(getString(R.string.error_not_positive_decimal));
                         return;
                     }
-                    if (f > analysisConfig.getMaxFrequency()) {
+                    if (f > analysisConfig.getMaxTuningFrequency()) {
                         freqInput.setError(String.format(getString(
                                 R.string.error_frequency_exceeded_maximum),
-                                analysisConfig.getMaxFrequency()));
+                                analysisConfig.getMaxTuningFrequency()));
                         return;
                     }
 
@@ -193,7 +210,7 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
     }
 
     public void showNotePicker(View view) {
-        NotePickerFragment.newInstance(tuningFrequency, analysisConfig.getMaxFrequency())
+        NotePickerFragment.newInstance(tuningFrequency, analysisConfig.getMaxTuningFrequency())
                 .show(getSupportFragmentManager(), null);
     }
 
@@ -206,6 +223,20 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
         private static final String TAG = "AudioAnalyzer";
         private static final int UPDATES_PER_SECOND = 60;
         private final double tuningFrequency;
+        // Written by the analysis thread, handed off through publishedPitch and read on the UI
+        // thread from shownPitch, so that the readouts never mix fields of different frames
+        private final PitchEstimate pitchEstimate = new PitchEstimate();
+        private final PitchEstimate publishedPitch = new PitchEstimate();
+        private final PitchEstimate shownPitch = new PitchEstimate();
+        // Whether a readout update has been posted but not yet run
+        private final AtomicBoolean pitchPending = new AtomicBoolean();
+        // Guarded by publishedPitch
+        private boolean tuningMeasured;
+        private double tuningCents;
+        // The frequency that tuningCents is measured from, which is below tuningFrequency if
+        // the analyzer had to clamp it
+        private double tuningTarget;
+        private TripleBuffer waveforms;
 
         public AudioAnalyzer(double tuningFrequency) {
             if (tuningFrequency <= 0) {
@@ -232,7 +263,7 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
 
             int sampleRate = audioRecord.getSampleRate();
             float[] data = new float[sampleRate / UPDATES_PER_SECOND];
-            float[] waveform = new float[data.length];
+            waveforms = new TripleBuffer(data.length);
 
             double framesPerDroneCycle = sampleRate / tuningFrequency;
             int totalCompleteDroneFrames = (int) (data.length / framesPerDroneCycle);
@@ -241,6 +272,13 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
             int droneWaveOffsetDelta = data.length % (int) framesPerDroneCycle;
             int droneWaveOffset = 0;
 
+            PitchEngine pitchEngine = createPitchEngine(sampleRate, data.length);
+            // The UI bounds the tuning frequency by the preferred sample rate, which the actual
+            // one may fall below.
+            TargetedPitchAnalyzer tuningAnalyzer = new TargetedPitchAnalyzer(sampleRate,
+                    Math.min(tuningFrequency,
+                            TargetedPitchAnalyzer.getMaxTargetFrequency(sampleRate)));
+
             publishProgress(0);
 
             try {
@@ -249,25 +287,28 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
                 return null;
             }
 
-            waveformFrag.setReferenceFrequency(tuningFrequency);
-            waveformFrag.setData(waveform);
-
-            PcmFloatReader pcmFloatReader = new PcmFloatReader(audioRecord, data.length);
-            audioRecord.startRecording();
+            AudioCapture audioCapture = new AudioCapture(audioRecord, data.length);
+            audioCapture.start();
 
             while (!isCancelled()) {
+                int n;
                 try {
-                    maybePause();
+                    if (isPaused()) {
+                        audioCapture.pause();
+                        maybePause();
+                        audioCapture.resume();
+                    }
+                    n = audioCapture.read(data, 0, data.length);
                 } catch (InterruptedException e) {
                     break;
                 }
-                int n = pcmFloatReader.read(data, 0, data.length);
                 if (n < 0) {
                     Log.e(TAG, "AudioRecord read error " + n);
                     publishProgress(-1);
                     break;
                 }
 
+                float[] waveform = waveforms.getBackBuffer();
                 double droneAmplitude = MiscMath.rms(data, 0, data.length);
                 for (int i = 0; i < data.length - dataWaveOffset; i++) {
                     double t = (double) i / sampleRate;
@@ -282,16 +323,86 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
                 droneWaveOffset += droneWaveOffsetDelta;
                 droneWaveOffset %= framesPerDroneCycle;
 
-                publishProgress(1);
+                pitchEngine.write(data, 0, n);
+                pitchEngine.detect(pitchEstimate);
+                tuningAnalyzer.write(data, 0, n);
+                boolean measured = tuningAnalyzer.analyze();
+                synchronized (publishedPitch) {
+                    publishedPitch.copyFrom(pitchEstimate);
+                    tuningMeasured = measured;
+                    tuningCents = tuningAnalyzer.getCents();
+                    tuningTarget = tuningAnalyzer.getTargetFrequency();
+                }
+
+                waveforms.publish();
+                // The readout is posted independently of the graph, which may not be taking frames
+                if (pitchPending.compareAndSet(false, true)) {
+                    publishProgress(1);
+                }
             }
             Log.d(TAG, "Stopping audio analysis...");
-            audioRecord.stop();
-            audioRecord.release();
+            audioCapture.stop();
             //noinspection UnusedAssignment
             audioRecord = null;
+            Log.d(TAG, "Dropped " + waveforms.getDroppedCount() + " of "
+                    + waveforms.getPublishedCount() + " frames");
             return null;
         }
 
+        /**
+         * Creates the configured pitch engine. The constant Q engine covers the same range of
+         * frequencies as the time-domain engine, but needs a much longer window for the same
+         * resolution at low frequencies.
+         */
+        private PitchEngine createPitchEngine(int sampleRate, int hopSize) {
+            double a4 = analysisConfig.getDefaultTuningFrequency();
+            double minFreq = analysisConfig.getMinPitchFrequency();
+            double maxFreq = analysisConfig.getMaxPitchFrequency();
+            PitchEngine pitchEngine;
+            if (AnalysisConfiguration.PITCH_ENGINE_CONSTANT_Q.equals(
+                    analysisConfig.getPitchEngine())) {
+                double r = analysisConfig.getFrequencyBinRatio();
+                int numBins = (int) Math.ceil(Math.log(maxFreq / minFreq) / Math.log(r)) + 1;
+                ConstantQTransform.Builder builder = analysisConfig.createConstantQBuilder(
+                        sampleRate, minFreq, r, numBins);
+                ConstantQTransform constantQ = new ConstantQTransform(
+                        ConstantQKernelCache.getInstance().getKernel(builder,
+                                analysisConfig.getConstantQKernelStore()));
+                pitchEngine = new ConstantQPitchEngine(
+                        new StreamingConstantQTransform(constantQ, hopSize), a4, 1);
+            } else {
+                pitchEngine = new McLeodPitchEngine(sampleRate, minFreq, maxFreq, a4);
+            }
+            Log.d(TAG, "Will detect pitch with a window of " + pitchEngine.getWindowLength()
+                    + " samples");
+            return pitchEngine;
+        }
+
+        private void updatePitchReadout() {
+            boolean measured;
+            double cents;
+            double target;
+            synchronized (publishedPitch) {
+                shownPitch.copyFrom(publishedPitch);
+                measured = tuningMeasured;
+                cents = tuningCents;
+                target = tuningTarget;
+            }
+            if (shownPitch.isPitched()) {
+                pitchReadout.setText(getString(R.string.pitch_readout,
+                        MiscMusic.CHROMATIC_SCALE[shownPitch.getPitchClass()],
+                        shownPitch.getOctave(), shownPitch.getCents(),
+                        shownPitch.getFrequency()));
+            } else {
+                pitchReadout.setText(null);
+            }
+            if (measured) {
+                tuningReadout.setText(getString(R.string.tuning_readout, cents, target));
+            } else {
+                tuningReadout.setText(null);
+            }
+        }
+
 
         @Override
         protected void onProgressUpdate(Integer... values) {
@@ -306,11 +417,14 @@ public class MainActivity extends RecordAudioActivity<Void, Integer, Void>
                     return;
 
                 case 0:
+                    waveformFrag.setReferenceFrequency(tuningFrequency);
+                    waveformFrag.setFrames(waveforms);
                     AnimationUtils.crossFade(loadingView, analysisView, shortAnimationDuration);
                     return;
 
                 case 1:
-                    waveformFrag.notifyDataSetChanged();
+                    pitchPending.set(false);
+                    updatePitchReadout();
                     return;
 
                 default:
@@ -16,6 +16,7 @@
 package com.crcrch.chromatictuner.app;
 
 import android.Manifest;
+import android.content.ComponentCallbacks2;
 import android.content.pm.PackageManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -26,6 +27,7 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
+import com.crcrch.chromatictuner.analysis.ConstantQKernelCache;
 import com.crcrch.chromatictuner.util.MyAsyncTask;
 
 public abstract class RecordAudioActivity<Params, Progress, Result> extends AppCompatActivity {
@@ -97,6 +99,14 @@ public abstract class RecordAudioActivity<Params, Progress, Result> extends AppC
         audioAnalyzer = createAudioAnalyzer();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            ConstantQKernelCache.getInstance().evictAll();
+        }
+    }
+
     @CallSuper
     protected void onAudioRecordPermissionGranted() {
         if (AsyncTask.Status.PENDING == audioAnalyzer.getStatus()) {
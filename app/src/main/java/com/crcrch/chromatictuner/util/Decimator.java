@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+/**
+ * Reduces a series of values to about as many points as can be seen, such as a few per pixel
+ * column, while keeping its visual shape. The output points keep the indices of the input
+ * values that they stand for as their x values.
+ * <p/>
+ * Implementations do not allocate.
+ */
+public interface Decimator {
+    /**
+     * Returns the number of points that {@link #decimate} outputs.
+     *
+     * @param inputLength the number of input values
+     * @param numColumns the number of pixel columns to plot in
+     * @return the number of output points, which is at most the number of input values
+     */
+    int getOutputLength(int inputLength, int numColumns);
+
+    /**
+     * Decimates a series of values. If there are no more values than output points, the
+     * values are copied as they are.
+     *
+     * @param in the values, where the index of each value is its x value
+     * @param numColumns the number of pixel columns to plot in
+     * @param outX the array to store the x values of the output points in, which must fit
+     * {@link #getOutputLength} points
+     * @param outY the array to store the y values of the output points in, which must fit
+     * {@link #getOutputLength} points
+     * @return the number of output points
+     */
+    int decimate(float[] in, int numColumns, float[] outX, float[] outY);
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+/**
+ * Approximates logarithms of {@code float} values with a lookup table. The exponent of the
+ * value gives the integer part of the base 2 logarithm, and the top
+ * {@value #TABLE_BITS} bits of the mantissa select a segment of {@code log2(1 + m)}, which is
+ * interpolated linearly with the remaining bits.
+ * <p/>
+ * The absolute error of {@link #log2(float)} is at most {@code 1.1e-5}, which is
+ * {@code 3.4e-5 dB} in {@link #powerToDb(float[], int, int, double)}, plus the rounding error of
+ * {@code float} arithmetic. Zero, negative, subnormal, infinite and NaN values fall back to
+ * {@link Math#log10(double)}, so the special values are the same as those of the exact
+ * computation.
+ */
+public final class FastLog {
+    private static final int TABLE_BITS = 7;
+    private static final int MANTISSA_BITS = 23;
+    private static final int FRACTION_BITS = MANTISSA_BITS - TABLE_BITS;
+    private static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
+    private static final float FRACTION_SCALE = 1.0f / (1 << FRACTION_BITS);
+    private static final int EXPONENT_BIAS = 127;
+
+    private static final double DB_PER_OCTAVE = 10 * Math.log10(2);
+
+    /**
+     * {@code log2(1 + i / 2^TABLE_BITS)} for {@code i} from 0 to {@code 2^TABLE_BITS}.
+     */
+    private static final float[] LOG2_TABLE = new float[(1 << TABLE_BITS) + 1];
+
+    static {
+        for (int i = 0; i < LOG2_TABLE.length; i++) {
+            LOG2_TABLE[i] = (float) (Math.log1p((double) i / (1 << TABLE_BITS)) / Math.log(2));
+        }
+    }
+
+    private FastLog() {
+    }
+
+    /**
+     * Approximates the base 2 logarithm of a value.
+     *
+     * @param x the value
+     * @return the approximate base 2 logarithm of {@code x}
+     */
+    public static float log2(float x) {
+        int bits = Float.floatToRawIntBits(x);
+        int exponent = bits >>> MANTISSA_BITS;
+        if (exponent == 0 || exponent >= 0xff) {
+            // Zero, subnormal, negative, infinite or NaN.
+            return (float) (Math.log10(x) / Math.log10(2));
+        }
+        int i = (bits >>> FRACTION_BITS) & ((1 << TABLE_BITS) - 1);
+        float fraction = (bits & FRACTION_MASK) * FRACTION_SCALE;
+        float lo = LOG2_TABLE[i];
+        return (exponent - EXPONENT_BIAS) + lo + fraction * (LOG2_TABLE[i + 1] - lo);
+    }
+
+    /**
+     * Converts power values to decibels relative to a reference power level in place, that is,
+     * computes {@code 10 log10(a[i] / p0)}. The division by {@code p0} is folded into a single
+     * offset that is subtracted from every value.
+     *
+     * @param a the power values
+     * @param from the index of the first value to convert
+     * @param to the index after the last value to convert
+     * @param p0 the reference power level
+     */
+    public static void powerToDb(float[] a, int from, int to, double p0) {
+        float scale = (float) DB_PER_OCTAVE;
+        float offset = (float) (10 * Math.log10(p0));
+        for (int i = from; i < to; i++) {
+            a[i] = scale * log2(a[i]) - offset;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated ring buffer of samples for exactly one producer thread and one consumer
+ * thread. Neither side ever blocks the other: each side only advances its own position, and
+ * the consumer only parks while it waits for samples. When the consumer falls behind and
+ * the buffer is full, the producer drops the samples that do not fit and counts an overrun
+ * instead of waiting, so that the producer can keep up with a real-time source.
+ * <p/>
+ * {@link #write(float[], int, int)} and {@link #close()} may only be called by the producer
+ * thread, and the reading methods only by the consumer thread.
+ */
+public class FloatRingBuffer {
+    private final float[] buffer;
+    private final int mask;
+
+    /**
+     * The total number of samples ever written and read. Each is only advanced by its own side.
+     */
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    // Written by the producer, read by anyone.
+    private volatile long overrunCount;
+    private volatile long droppedSampleCount;
+    private volatile boolean closed;
+
+    /**
+     * The consumer thread while it is parked waiting for samples.
+     */
+    private volatile Thread waitingConsumer;
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param minCapacity the minimum number of samples that can be buffered, which is rounded up
+     * to a power of 2
+     */
+    public FloatRingBuffer(int minCapacity) {
+        if (minCapacity <= 0 || minCapacity > 1 << 30) {
+            throw new IllegalArgumentException("invalid capacity: " + minCapacity);
+        }
+        int capacity = Integer.highestOneBit(minCapacity);
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        buffer = new float[capacity];
+        mask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Appends samples, dropping those that do not fit. Dropping any sample counts as one
+     * overrun.
+     *
+     * @param samples the array containing the samples
+     * @param offset the index of the first sample to write
+     * @param length the number of samples to write
+     * @return the number of samples that were written
+     */
+    public int write(float[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds");
+        }
+        long position = writePosition.get();
+        int free = buffer.length - (int) (position - readPosition.get());
+        int n = Math.min(length, free);
+        if (n < length) {
+            overrunCount++;
+            droppedSampleCount += length - n;
+        }
+
+        int start = (int) position & mask;
+        int first = Math.min(n, buffer.length - start);
+        System.arraycopy(samples, offset, buffer, start, first);
+        System.arraycopy(samples, offset + first, buffer, 0, n - first);
+        // A volatile store rather than an ordered one, so that it cannot be reordered with the
+        // read of waitingConsumer and miss a consumer that is about to park.
+        writePosition.set(position + n);
+
+        if (n > 0) {
+            wakeConsumer();
+        }
+        return n;
+    }
+
+    /**
+     * Marks the end of the samples, so that the consumer stops waiting for more.
+     */
+    public void close() {
+        closed = true;
+        wakeConsumer();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Returns the number of samples that can be read without waiting.
+     *
+     * @return the number of buffered samples
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Reads the samples that are available, up to a maximum, without waiting.
+     *
+     * @param output the array to read the samples into
+     * @param offset the index in the array of the first sample
+     * @param length the maximum number of samples to read
+     * @return the number of samples that were read
+     */
+    public int read(float[] output, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > output.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds");
+        }
+        long position = readPosition.get();
+        int n = Math.min(length, (int) (writePosition.get() - position));
+
+        int start = (int) position & mask;
+        int first = Math.min(n, buffer.length - start);
+        System.arraycopy(buffer, start, output, offset, first);
+        System.arraycopy(buffer, 0, output, offset + first, n - first);
+        readPosition.lazySet(position + n);
+        return n;
+    }
+
+    /**
+     * Reads exactly the requested number of samples, waiting for them if necessary, unless the
+     * buffer is closed first.
+     *
+     * @param output the array to read the samples into
+     * @param offset the index in the array of the first sample
+     * @param length the number of samples to read
+     * @return the number of samples that were read, which is less than {@code length} only if
+     * the buffer was closed
+     * @throws InterruptedException if the consumer thread is interrupted while waiting
+     */
+    public int readFully(float[] output, int offset, int length) throws InterruptedException {
+        int read = read(output, offset, length);
+        if (read == length) {
+            return read;
+        }
+        Thread current = Thread.currentThread();
+        waitingConsumer = current;
+        try {
+            while (true) {
+                read += read(output, offset + read, length - read);
+                if (read == length) {
+                    return read;
+                }
+                if (closed) {
+                    // Samples may have been written just before closing.
+                    return read + read(output, offset + read, length - read);
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * Discards buffered samples without reading them.
+     *
+     * @param length the maximum number of samples to discard
+     * @return the number of samples that were discarded
+     */
+    public int skip(int length) {
+        long position = readPosition.get();
+        int n = Math.min(length, (int) (writePosition.get() - position));
+        readPosition.lazySet(position + n);
+        return n;
+    }
+
+    /**
+     * Returns the number of writes that could not store all of their samples because the
+     * consumer fell behind.
+     *
+     * @return the number of overruns
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * Returns the total number of samples dropped by overruns.
+     *
+     * @return the number of dropped samples
+     */
+    public long getDroppedSampleCount() {
+        return droppedSampleCount;
+    }
+}
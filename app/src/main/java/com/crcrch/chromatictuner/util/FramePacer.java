@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Calls back on its thread once per display frame while started. On API 16 and up, frames
+ * are paced by {@link Choreographer}; older versions fall back to a {@link Handler} posting at
+ * the nominal refresh rate.
+ * <p/>
+ * Must be created, started and stopped on the same thread, which must have a
+ * {@link android.os.Looper Looper}, such as the UI thread.
+ */
+public abstract class FramePacer {
+    /**
+     * The frame interval of the fallback, and the nominal interval for frame statistics.
+     */
+    public static final long NOMINAL_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    /**
+     * Called once per frame.
+     */
+    public interface Callback {
+        /**
+         * @param frameTimeNanos the time that the frame started rendering, in the
+         * {@link System#nanoTime()} time base
+         */
+        void onFrame(long frameTimeNanos);
+    }
+
+    protected final Callback callback;
+    private boolean started;
+
+    private FramePacer(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Creates the best frame pacer for this version of Android.
+     *
+     * @param callback the callback to call every frame
+     * @return the frame pacer, which is initially stopped
+     */
+    public static FramePacer create(Callback callback) {
+        if (Build.VERSION.SDK_INT >= 16) {
+            return new ChoreographerPacer(callback);
+        }
+        return new HandlerPacer(callback);
+    }
+
+    public void start() {
+        if (!started) {
+            started = true;
+            postFrame();
+        }
+    }
+
+    public void stop() {
+        if (started) {
+            started = false;
+            removeFrame();
+        }
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    protected abstract void postFrame();
+
+    protected abstract void removeFrame();
+
+    @TargetApi(16)
+    private static class ChoreographerPacer extends FramePacer
+            implements Choreographer.FrameCallback {
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        ChoreographerPacer(Callback callback) {
+            super(callback);
+        }
+
+        @Override
+        protected void postFrame() {
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        protected void removeFrame() {
+            choreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // Posted before the callback, so that a callback that stops the pacer removes it.
+            postFrame();
+            callback.onFrame(frameTimeNanos);
+        }
+    }
+
+    private static class HandlerPacer extends FramePacer implements Runnable {
+        private final Handler handler = new Handler();
+        private final long intervalMillis = NOMINAL_FRAME_INTERVAL_NANOS / 1000000;
+        private long nextFrameMillis;
+
+        HandlerPacer(Callback callback) {
+            super(callback);
+        }
+
+        @Override
+        protected void postFrame() {
+            nextFrameMillis = SystemClock.uptimeMillis();
+            handler.post(this);
+        }
+
+        @Override
+        protected void removeFrame() {
+            handler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            // Schedule against the previous frame time, so that the time spent in the callback
+            // does not lengthen the interval.
+            nextFrameMillis = Math.max(nextFrameMillis + intervalMillis,
+                    SystemClock.uptimeMillis());
+            handler.postAtTime(this, nextFrameMillis);
+            callback.onFrame(System.nanoTime());
+        }
+    }
+}
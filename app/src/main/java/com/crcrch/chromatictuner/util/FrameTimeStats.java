@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import java.util.Locale;
+
+/**
+ * Accumulates statistics of rendered UI frames: the intervals between frame callbacks, how many
+ * of them had new data to draw, and how long drawing took.
+ * <p/>
+ * Instances are thread-safe, so that a render thread can record frames while the UI thread
+ * reads the statistics.
+ */
+public class FrameTimeStats {
+    /**
+     * An interval longer than this many nominal frame intervals counts as a janky frame.
+     */
+    private static final double JANK_FACTOR = 1.5;
+
+    private final long nominalIntervalNanos;
+
+    private long lastFrameTimeNanos = -1;
+    private long numFrames;
+    private long numRenderedFrames;
+    private long numJankyFrames;
+    private long numIntervals;
+    private long totalIntervalNanos;
+    private long maxIntervalNanos;
+    private long numDraws;
+    private long totalDrawNanos;
+    private long maxDrawNanos;
+
+    /**
+     * @param nominalIntervalNanos the expected interval between frames, such as the refresh
+     * period of the display
+     */
+    public FrameTimeStats(long nominalIntervalNanos) {
+        if (nominalIntervalNanos <= 0) {
+            throw new IllegalArgumentException(
+                    "non-positive frame interval: " + nominalIntervalNanos);
+        }
+        this.nominalIntervalNanos = nominalIntervalNanos;
+    }
+
+    /**
+     * Records a frame callback.
+     *
+     * @param frameTimeNanos the time of the frame
+     * @param rendered whether the frame had new data and was redrawn
+     */
+    public synchronized void recordFrame(long frameTimeNanos, boolean rendered) {
+        if (lastFrameTimeNanos >= 0) {
+            long interval = frameTimeNanos - lastFrameTimeNanos;
+            numIntervals++;
+            totalIntervalNanos += interval;
+            maxIntervalNanos = Math.max(maxIntervalNanos, interval);
+            if (interval > JANK_FACTOR * nominalIntervalNanos) {
+                numJankyFrames++;
+            }
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        numFrames++;
+        if (rendered) {
+            numRenderedFrames++;
+        }
+    }
+
+    /**
+     * Records how long drawing a frame took.
+     *
+     * @param durationNanos the duration of drawing
+     */
+    public synchronized void recordDraw(long durationNanos) {
+        numDraws++;
+        totalDrawNanos += durationNanos;
+        maxDrawNanos = Math.max(maxDrawNanos, durationNanos);
+    }
+
+    /**
+     * Marks a gap in the frames, such as while the UI is paused, so that the next interval is
+     * not recorded.
+     */
+    public synchronized void pause() {
+        lastFrameTimeNanos = -1;
+    }
+
+    public synchronized void reset() {
+        lastFrameTimeNanos = -1;
+        numFrames = 0;
+        numRenderedFrames = 0;
+        numJankyFrames = 0;
+        numIntervals = 0;
+        totalIntervalNanos = 0;
+        maxIntervalNanos = 0;
+        numDraws = 0;
+        totalDrawNanos = 0;
+        maxDrawNanos = 0;
+    }
+
+    public synchronized long getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Returns the number of frames that were redrawn. The other frames were skipped because
+     * nothing changed.
+     *
+     * @return the number of rendered frames
+     */
+    public synchronized long getNumRenderedFrames() {
+        return numRenderedFrames;
+    }
+
+    /**
+     * Returns the number of frames that came more than 1.5 nominal intervals after the previous
+     * one.
+     *
+     * @return the number of janky frames
+     */
+    public synchronized long getNumJankyFrames() {
+        return numJankyFrames;
+    }
+
+    public synchronized double getMeanIntervalMillis() {
+        return numIntervals == 0 ? 0 : totalIntervalNanos / 1e6 / numIntervals;
+    }
+
+    public synchronized double getMaxIntervalMillis() {
+        return maxIntervalNanos / 1e6;
+    }
+
+    public synchronized double getMeanDrawMillis() {
+        return numDraws == 0 ? 0 : totalDrawNanos / 1e6 / numDraws;
+    }
+
+    public synchronized double getMaxDrawMillis() {
+        return maxDrawNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d frames (%d rendered, %d janky), interval %.2f ms "
+                        + "mean %.2f ms max, draw %.2f ms mean %.2f ms max", numFrames,
+                numRenderedFrames, numJankyFrames, getMeanIntervalMillis(),
+                getMaxIntervalMillis(), getMeanDrawMillis(), getMaxDrawMillis());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+/**
+ * Decimates with the largest triangle three buckets algorithm: the first and the last values
+ * are kept, and each bucket of values in between keeps the one that forms the largest triangle
+ * with the point kept from the previous bucket and the average of the next bucket. It keeps
+ * one point per pixel column and follows the shape of smooth series closely, but unlike
+ * {@link MinMaxDecimator}, it can miss peaks that are narrower than a bucket.
+ * <p/>
+ * See Sveinn Steinarsson, "Downsampling Time Series for Visual Representation", 2013.
+ */
+public class LttbDecimator implements Decimator {
+    /**
+     * The first and last points plus at least one bucket.
+     */
+    private static final int MIN_OUTPUT_LENGTH = 3;
+
+    @Override
+    public int getOutputLength(int inputLength, int numColumns) {
+        if (numColumns <= 0) {
+            throw new IllegalArgumentException("non-positive number of columns: " + numColumns);
+        }
+        return Math.min(inputLength, Math.max(MIN_OUTPUT_LENGTH, numColumns));
+    }
+
+    @Override
+    public int decimate(float[] in, int numColumns, float[] outX, float[] outY) {
+        int n = in.length;
+        int numOut = getOutputLength(n, numColumns);
+        if (n <= numOut) {
+            return MinMaxDecimator.copy(in, outX, outY);
+        }
+
+        int numBuckets = numOut - 2;
+        double bucketSize = (double) (n - 2) / numBuckets;
+
+        int a = 0;
+        outX[0] = 0;
+        outY[0] = in[0];
+        for (int b = 0; b < numBuckets; b++) {
+            int start = getBucketEnd(b - 1, numBuckets, bucketSize, n);
+            int end = getBucketEnd(b, numBuckets, bucketSize, n);
+
+            // The average of the next bucket, or the last point for the last bucket
+            int nextEnd = b == numBuckets - 1 ? n : getBucketEnd(b + 1, numBuckets, bucketSize, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = end; i < nextEnd; i++) {
+                avgX += i;
+                avgY += in[i];
+            }
+            int nextLength = nextEnd - end;
+            avgX /= nextLength;
+            avgY /= nextLength;
+
+            // Twice the area of the triangle, which does not change the largest one
+            double maxArea = -1;
+            int maxIndex = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((a - avgX) * (in[i] - in[a]) - (a - i) * (avgY - in[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+            outX[b + 1] = maxIndex;
+            outY[b + 1] = in[maxIndex];
+            a = maxIndex;
+        }
+        outX[numOut - 1] = n - 1;
+        outY[numOut - 1] = in[n - 1];
+        return numOut;
+    }
+
+    /**
+     * Returns the end of a bucket, which is also the start of the next bucket. The buckets
+     * cover all values except the first and the last.
+     */
+    private static int getBucketEnd(int bucket, int numBuckets, double bucketSize, int n) {
+        if (bucket >= numBuckets - 1) {
+            return n - 1;
+        }
+        return (int) ((bucket + 1) * bucketSize) + 1;
+    }
+}
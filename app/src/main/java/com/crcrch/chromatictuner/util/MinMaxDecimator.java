@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+/**
+ * Decimates to the minimum and the maximum of the values in each pixel column, in the order
+ * that they occur. The envelope of the series is kept exactly, so no peak is lost however
+ * narrow, which suits waveforms.
+ */
+public class MinMaxDecimator implements Decimator {
+    @Override
+    public int getOutputLength(int inputLength, int numColumns) {
+        if (numColumns <= 0) {
+            throw new IllegalArgumentException("non-positive number of columns: " + numColumns);
+        }
+        return Math.min(inputLength, 2 * numColumns);
+    }
+
+    @Override
+    public int decimate(float[] in, int numColumns, float[] outX, float[] outY) {
+        int n = in.length;
+        if (n <= getOutputLength(n, numColumns)) {
+            return copy(in, outX, outY);
+        }
+
+        int numOut = 0;
+        int start = 0;
+        for (int c = 0; c < numColumns; c++) {
+            int end = (int) ((long) (c + 1) * n / numColumns);
+            int minIndex = start;
+            int maxIndex = start;
+            for (int i = start + 1; i < end; i++) {
+                if (in[i] < in[minIndex]) {
+                    minIndex = i;
+                } else if (in[i] > in[maxIndex]) {
+                    maxIndex = i;
+                }
+            }
+            int first = Math.min(minIndex, maxIndex);
+            int second = Math.max(minIndex, maxIndex);
+            outX[numOut] = first;
+            outY[numOut] = in[first];
+            numOut++;
+            outX[numOut] = second;
+            outY[numOut] = in[second];
+            numOut++;
+            start = end;
+        }
+        return numOut;
+    }
+
+    static int copy(float[] in, float[] outX, float[] outY) {
+        for (int i = 0; i < in.length; i++) {
+            outX[i] = i;
+        }
+        System.arraycopy(in, 0, outY, 0, in.length);
+        return in.length;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import java.util.Arrays;
+
+/**
+ * A bounded history of spectrum frames for drawing a spectrogram. Values are quantized to one
+ * byte each between a minimum and a maximum, so that minutes of frames take little memory, and
+ * stored in a ring that overwrites the oldest frame when full.
+ * <p/>
+ * A producer adds frames while a consumer copies out the frames that it has not drawn yet, by
+ * their index since the history was created or cleared. Instances are thread-safe.
+ */
+public class SpectrogramHistory {
+    /**
+     * The number of quantization levels.
+     */
+    public static final int NUM_LEVELS = 256;
+
+    private final int frameLength;
+    private final int capacity;
+    private final float minValue;
+    private final float maxValue;
+    private final float levelsPerUnit;
+    private final byte[] levels;
+
+    // Guarded by this
+    private long numFrames;
+
+    /**
+     * @param frameLength the number of values in each frame
+     * @param capacity the number of frames to keep
+     * @param minValue the value that maps to level 0; smaller values are clamped
+     * @param maxValue the value that maps to level 255; larger values are clamped
+     */
+    public SpectrogramHistory(int frameLength, int capacity, float minValue, float maxValue) {
+        if (frameLength <= 0) {
+            throw new IllegalArgumentException("non-positive frame length: " + frameLength);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("non-positive capacity: " + capacity);
+        }
+        if (!(minValue < maxValue)) {
+            throw new IllegalArgumentException(
+                    "empty value range: " + minValue + " to " + maxValue);
+        }
+        if ((long) frameLength * capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "history too large: " + capacity + " frames of " + frameLength);
+        }
+        this.frameLength = frameLength;
+        this.capacity = capacity;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        levelsPerUnit = (NUM_LEVELS - 1) / (maxValue - minValue);
+        levels = new byte[frameLength * capacity];
+    }
+
+    /**
+     * Quantizes and adds a frame, overwriting the oldest frame if the history is full.
+     *
+     * @param frame the values of the frame, of which the first {@link #getFrameLength()} are
+     * used; NaN is treated as the minimum
+     */
+    public synchronized void add(float[] frame) {
+        int offset = (int) (numFrames % capacity) * frameLength;
+        for (int i = 0; i < frameLength; i++) {
+            levels[offset + i] = (byte) quantize(frame[i]);
+        }
+        numFrames++;
+    }
+
+    private int quantize(float value) {
+        float level = (value - minValue) * levelsPerUnit + 0.5f;
+        if (!(level > 0)) {
+            return 0;
+        }
+        if (level >= NUM_LEVELS - 1) {
+            return NUM_LEVELS - 1;
+        }
+        return (int) level;
+    }
+
+    /**
+     * Copies the quantized levels of a frame. The levels are unsigned, so they should be read
+     * as {@code out[i] & 0xff}.
+     *
+     * @param index the index of the frame, counting from the first frame added
+     * @param out the array to copy the levels into
+     * @return whether the frame was copied, which is false if it was overwritten or has not been
+     * added yet
+     */
+    public synchronized boolean copyFrame(long index, byte[] out) {
+        if (index < numFrames - capacity || index < 0 || index >= numFrames) {
+            return false;
+        }
+        System.arraycopy(levels, (int) (index % capacity) * frameLength, out, 0, frameLength);
+        return true;
+    }
+
+    /**
+     * Returns the number of frames added since the history was created or cleared, which is
+     * also the index of the next frame.
+     *
+     * @return the number of frames added
+     */
+    public synchronized long getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Returns the index of the oldest frame that is still kept.
+     *
+     * @return the index of the oldest frame
+     */
+    public synchronized long getOldestFrame() {
+        return Math.max(0, numFrames - capacity);
+    }
+
+    public synchronized void clear() {
+        numFrames = 0;
+        Arrays.fill(levels, (byte) 0);
+    }
+
+    /**
+     * Returns the value that a quantization level represents.
+     *
+     * @param level the level, from 0 to 255
+     * @return the value
+     */
+    public float getValue(int level) {
+        return minValue + level / levelsPerUnit;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public float getMinValue() {
+        return minValue;
+    }
+
+    public float getMaxValue() {
+        return maxValue;
+    }
+}
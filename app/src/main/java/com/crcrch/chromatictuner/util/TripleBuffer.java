@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest complete frame from one producer thread to one consumer thread without
+ * locks. The producer fills the back buffer and publishes it, which swaps it with a middle
+ * buffer; the consumer acquires the middle buffer as its front buffer whenever a newer frame
+ * has been published. Neither side ever sees a buffer that the other is using, so frames are
+ * never torn, and a frame that is superseded before the consumer takes it is dropped.
+ * <p/>
+ * {@link #publish()} returns whether the consumer needs to be notified, so that at most one
+ * notification is pending no matter how far the consumer falls behind.
+ * <p/>
+ * {@link #getBackBuffer()} and {@link #publish()} may only be called by the producer thread,
+ * and {@link #acquire()} and {@link #getFrontBuffer()} only by the consumer thread.
+ */
+public class TripleBuffer {
+    /**
+     * Set in {@link #middle} when the middle buffer holds a frame that has not been acquired.
+     */
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final float[][] buffers;
+
+    /**
+     * The index of the middle buffer, and whether it is fresh.
+     */
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    // Owned by the producer.
+    private int back = 0;
+
+    // Owned by the consumer.
+    private int front = 2;
+
+    // Written by the producer, read by anyone.
+    private volatile long publishedCount;
+    private volatile long droppedCount;
+
+    /**
+     * Creates a triple buffer of zeroed frames.
+     *
+     * @param frameLength the length of each frame
+     */
+    public TripleBuffer(int frameLength) {
+        if (frameLength < 0) {
+            throw new IllegalArgumentException("negative frame length: " + frameLength);
+        }
+        buffers = new float[3][frameLength];
+    }
+
+    public int getFrameLength() {
+        return buffers[0].length;
+    }
+
+    /**
+     * Returns the buffer that the producer fills with the next frame. It changes after every
+     * call to {@link #publish()}, so it must be fetched again for each frame.
+     *
+     * @return the back buffer
+     */
+    public float[] getBackBuffer() {
+        return buffers[back];
+    }
+
+    /**
+     * Publishes the back buffer as the latest frame.
+     *
+     * @return true if the consumer had acquired the previous frame and should be notified, or
+     * false if a notification is still pending and the previous frame was dropped
+     */
+    public boolean publish() {
+        int previous = middle.getAndSet(back | FRESH);
+        back = previous & INDEX_MASK;
+        publishedCount++;
+        if ((previous & FRESH) != 0) {
+            droppedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes the latest published frame the front buffer if it has not been acquired yet.
+     *
+     * @return whether a newer frame was acquired
+     */
+    public boolean acquire() {
+        if ((middle.get() & FRESH) == 0) {
+            return false;
+        }
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return true;
+    }
+
+    /**
+     * Returns the frame that the consumer last acquired. It stays unchanged until the next
+     * call to {@link #acquire()}.
+     *
+     * @return the front buffer
+     */
+    public float[] getFrontBuffer() {
+        return buffers[front];
+    }
+
+    /**
+     * Returns the number of frames published.
+     *
+     * @return the number of published frames
+     */
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * Returns the number of published frames that were superseded before the consumer acquired
+     * them.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
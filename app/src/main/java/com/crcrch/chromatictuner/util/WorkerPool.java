@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A fixed set of threads that help the calling thread run a batch of small tasks, for work that
+ * is split up anew many times per second. Unlike an {@link java.util.concurrent.Executor},
+ * nothing is allocated or queued per batch: the caller publishes the task and wakes the workers,
+ * then every thread including the caller claims task indices until none are left.
+ * <p/>
+ * Only one thread may call {@link #execute(Task, int)} at a time.
+ */
+public class WorkerPool {
+    /**
+     * The number of times that the calling thread polls for the remaining tasks to finish
+     * before it blocks. Workers usually finish within a few microseconds of the caller, which is
+     * much less than the cost of being woken up.
+     */
+    private static final int SPIN_ITERATIONS = 1000;
+
+    private final Thread[] threads;
+    private final Object lock = new Object();
+
+    /**
+     * The next task index of the current batch. Indices increase across batches, so that a
+     * worker that is late to notice the end of a batch cannot claim an index of the next one.
+     */
+    private final AtomicLong nextIndex = new AtomicLong();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // Guarded by lock.
+    private Task task;
+    private long startIndex;
+    private long endIndex;
+    private int generation;
+    private boolean shutdown;
+
+    /**
+     * A batch of tasks to run on a {@link WorkerPool}.
+     */
+    public interface Task {
+        /**
+         * Runs one task of a batch. Different indices may be run concurrently.
+         *
+         * @param index the index of the task in {@code [0, numTasks)}
+         */
+        void run(int index);
+    }
+
+    /**
+     * Starts a pool of daemon threads.
+     *
+     * @param numThreads the number of threads besides the calling thread
+     * @param name the prefix of the thread names
+     */
+    public WorkerPool(int numThreads, String name) {
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("negative number of threads: " + numThreads);
+        }
+        threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread(new Worker(), name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Returns the number of threads besides the caller that would keep the available processors
+     * busy.
+     *
+     * @return the default number of threads
+     */
+    public static int getDefaultNumThreads() {
+        return Runtime.getRuntime().availableProcessors() - 1;
+    }
+
+    /**
+     * Returns the number of threads that run a batch, including the calling thread.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return threads.length + 1;
+    }
+
+    /**
+     * Runs every index of a batch of tasks and waits for them to finish. The calling thread runs
+     * tasks as well.
+     *
+     * @param task the tasks to run
+     * @param numTasks the number of tasks
+     * @throws IllegalStateException if the pool has been shut down
+     */
+    public void execute(Task task, int numTasks) {
+        if (numTasks <= 0) {
+            return;
+        }
+        long start;
+        long end;
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("worker pool has been shut down");
+            }
+            start = nextIndex.get();
+            end = start + numTasks;
+            this.task = task;
+            startIndex = start;
+            endIndex = end;
+            remaining.set(numTasks);
+            generation++;
+            lock.notifyAll();
+        }
+        runTasks(task, start, end);
+
+        for (int i = 0; i < SPIN_ITERATIONS && remaining.get() != 0; i++) {
+            // Spin briefly, since the other threads are most likely almost done.
+        }
+        if (remaining.get() != 0) {
+            boolean interrupted = false;
+            synchronized (lock) {
+                while (remaining.get() != 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Throwable t = failure.getAndSet(null);
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Claims and runs the task indices of a batch until none are left.
+     *
+     * @param task the tasks to run
+     * @param start the first index of the batch
+     * @param end the index past the last index of the batch
+     */
+    private void runTasks(Task task, long start, long end) {
+        while (true) {
+            long i = nextIndex.get();
+            if (i >= end) {
+                return;
+            }
+            if (!nextIndex.compareAndSet(i, i + 1)) {
+                continue;
+            }
+            try {
+                task.run((int) (i - start));
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the threads once they finish their current batch.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            task = null;
+            lock.notifyAll();
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            int seenGeneration = 0;
+            while (true) {
+                Task task;
+                long start;
+                long end;
+                synchronized (lock) {
+                    while (generation == seenGeneration && !shutdown) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (shutdown) {
+                        return;
+                    }
+                    seenGeneration = generation;
+                    task = WorkerPool.this.task;
+                    start = startIndex;
+                    end = endIndex;
+                }
+                runTasks(task, start, end);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConstantQKernelCacheTest {
+    private final ConstantQKernelCache cache = ConstantQKernelCache.getInstance();
+
+    @Before
+    public void setUp() {
+        cache.evictAll();
+    }
+
+    @After
+    public void tearDown() {
+        cache.setMaxSizeBytes(ConstantQKernelCache.DEFAULT_MAX_SIZE_BYTES);
+        cache.evictAll();
+    }
+
+    private static ConstantQTransform.Builder createBuilder(int numBins) {
+        return new ConstantQTransform.Builder(44100, 110, Math.pow(2, 1 / 12.0), numBins)
+                .setHalfSpectrum(true).setWindow(TabulatedWindow.HANN)
+                .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD);
+    }
+
+    @Test
+    public void returnsCachedKernel() {
+        ConstantQKernel kernel = cache.getKernel(createBuilder(24), null);
+        assertSame(kernel, cache.getKernel(createBuilder(24), null));
+        assertEquals(kernel.getSizeInBytes(), cache.getSizeBytes());
+    }
+
+    @Test
+    public void doesNotCacheUnidentifiedWindows() {
+        ConstantQTransform.Builder builder = createBuilder(24).setWindow(
+                new ConstantQTransform.WindowFunction() {
+                    @Override
+                    public float apply(int n, int windowLength) {
+                        return 1;
+                    }
+                });
+        assertNotSame(cache.getKernel(builder, null), cache.getKernel(builder, null));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ConstantQKernel a = cache.getKernel(createBuilder(24), null);
+        ConstantQKernel b = cache.getKernel(createBuilder(26), null);
+        cache.setMaxSizeBytes(a.getSizeInBytes() + b.getSizeInBytes());
+        assertSame(a, cache.getKernel(createBuilder(24), null));
+
+        // A kernel with fewer bins is smaller, so evicting b makes room for it.
+        ConstantQKernel c = cache.getKernel(createBuilder(22), null);
+        assertTrue(cache.getSizeBytes() <= cache.getMaxSizeBytes());
+        assertSame(c, cache.getKernel(createBuilder(22), null));
+        assertSame(a, cache.getKernel(createBuilder(24), null));
+        assertNotSame(b, cache.getKernel(createBuilder(26), null));
+    }
+
+    @Test
+    public void oversizedKernelDoesNotEvictOthers() {
+        ConstantQKernel small = cache.getKernel(createBuilder(12), null);
+        cache.setMaxSizeBytes(small.getSizeInBytes());
+
+        ConstantQKernel large = cache.getKernel(createBuilder(48), null);
+        assertEquals(small.getSizeInBytes(), cache.getSizeBytes());
+        assertSame(small, cache.getKernel(createBuilder(12), null));
+        assertNotSame(large, cache.getKernel(createBuilder(48), null));
+    }
+}
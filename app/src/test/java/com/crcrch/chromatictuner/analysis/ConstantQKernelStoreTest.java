@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConstantQKernelStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ConstantQKernelStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("kernels");
+        store = new ConstantQKernelStore(directory);
+    }
+
+    private static ConstantQTransform.Builder createBuilder(double minFreq) {
+        return new ConstantQTransform.Builder(44100, minFreq, Math.pow(2, 1 / 12.0), 24)
+                .setHalfSpectrum(true).setWindow(TabulatedWindow.HANN)
+                .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD);
+    }
+
+    private static float[] transform(ConstantQKernel kernel) {
+        ConstantQTransform transform = new ConstantQTransform(kernel);
+        float[] input = new float[transform.getFftSize()];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (float) Math.sin(i * 0.05);
+        }
+        float[] output = new float[transform.getNumCoefficients()];
+        transform.realConstantQPowerDb(input, output, 1);
+        return output;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private File getOnlyFile() {
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    @Test
+    public void roundTrip() {
+        ConstantQTransform.Builder builder = createBuilder(110);
+        ConstantQKernel computed = store.getKernel(builder);
+        ConstantQKernel loaded = store.getKernel(builder);
+        assertNotEquals(computed, loaded);
+        assertEquals(computed.getNumCoefficients(), loaded.getNumCoefficients());
+        assertEquals(computed.getNumKernelCoefficients(), loaded.getNumKernelCoefficients());
+        assertEquals(computed.getFftSize(), loaded.getFftSize());
+        assertArrayEquals(transform(computed), transform(loaded), 0);
+    }
+
+    @Test
+    public void namesFilesByDigest() {
+        store.getKernel(createBuilder(110));
+        String name = getOnlyFile().getName();
+        assertTrue(name, name.matches("cq-kernel-[0-9a-f]{40}\\.bin"));
+
+        store.getKernel(createBuilder(220));
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    private void assertReplaced(ConstantQTransform.Builder builder, File file, byte[] corrupt,
+                                byte[] original, float[] expected) throws IOException {
+        writeFile(file, corrupt);
+        assertArrayEquals(expected, transform(store.getKernel(builder)), 0);
+        assertArrayEquals(original, readFile(file));
+    }
+
+    @Test
+    public void replacesCorruptFiles() throws IOException {
+        ConstantQTransform.Builder builder = createBuilder(110);
+        float[] expected = transform(store.getKernel(builder));
+        File file = getOnlyFile();
+        byte[] original = readFile(file);
+
+        ByteBuffer header = ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN);
+        int keyLength = header.getInt(8);
+        int numSamplesOffset = 12 + keyLength + 3 * 8 + 2 * 4;
+        int numSamples = header.getInt(numSamplesOffset);
+        int countsOffset = numSamplesOffset + 2 * 4;
+        int indicesOffset = countsOffset + 4 * header.getInt(numSamplesOffset + 4);
+
+        byte[] corrupt = original.clone();
+        ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(8, Integer.MAX_VALUE);
+        assertReplaced(builder, file, corrupt, original, expected);
+
+        corrupt = original.clone();
+        ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(countsOffset, Integer.MAX_VALUE);
+        assertReplaced(builder, file, corrupt, original, expected);
+
+        corrupt = original.clone();
+        ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(indicesOffset, numSamples + 1000);
+        assertReplaced(builder, file, corrupt, original, expected);
+
+        assertReplaced(builder, file, Arrays.copyOf(original, original.length / 2), original,
+                expected);
+        assertReplaced(builder, file, new byte[0], original, expected);
+
+        // Whatever is loaded from randomly damaged files must be usable.
+        Random random = new Random(1);
+        for (int trial = 0; trial < 100; trial++) {
+            corrupt = original.clone();
+            for (int i = 0; i < 4; i++) {
+                corrupt[random.nextInt(indicesOffset + 64)] = (byte) random.nextInt();
+            }
+            writeFile(file, corrupt);
+            assertEquals(24, transform(store.getKernel(builder)).length);
+        }
+    }
+}
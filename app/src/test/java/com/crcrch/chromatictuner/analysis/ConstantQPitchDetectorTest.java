@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConstantQPitchDetectorTest {
+    private static final double SAMPLE_RATE = 44100;
+
+    private static double centsBetween(double expected, double actual) {
+        return 1200 * Math.log(actual / expected) / Math.log(2);
+    }
+
+    @Test
+    public void detectsHarmonicTones() {
+        ConstantQTransform transform = new ConstantQTransform.Builder(SAMPLE_RATE, 27.5,
+                Math.pow(2, 1 / 36.0), 36 * 7).setHalfSpectrum(true)
+                .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD)
+                .setWindow(TabulatedWindow.HAMMING)
+                .setFftSizePolicy(ConstantQTransform.FftSizePolicy.POWER_OF_TWO).build();
+        ConstantQPitchDetector detector = new ConstantQPitchDetector(
+                transform.getMinFrequency(), transform.getRatio(),
+                transform.getNumCoefficients(), ConstantQPitchDetector.DEFAULT_NUM_HARMONICS,
+                440);
+        Random random = new Random(1);
+        PitchEstimate estimate = new PitchEstimate();
+        float[] input = new float[transform.getFftSize()];
+        float[] spectrum = new float[transform.getNumCoefficients()];
+
+        // The fundamental is weaker than the second harmonic, as in many instruments.
+        for (double frequency : new double[]{41.2, 82.41, 110, 196, 261.63, 445, 880, 1318.5}) {
+            for (int i = 0; i < input.length; i++) {
+                double phase = 2 * Math.PI * frequency * i / SAMPLE_RATE;
+                input[i] = (float) (0.3 * Math.sin(phase) + 0.5 * Math.sin(2 * phase)
+                        + 0.3 * Math.sin(3 * phase) + 0.2 * Math.sin(4 * phase)
+                        + 0.001 * random.nextGaussian());
+            }
+            transform.realConstantQ(input, spectrum, ConstantQTransform.OutputMode.FAST_POWER_DB,
+                    1e-6);
+            assertTrue(frequency + " Hz", detector.detect(spectrum, estimate));
+            assertEquals(frequency + " Hz", 0,
+                    centsBetween(frequency, estimate.getFrequency()), 5);
+        }
+    }
+
+    @Test
+    public void rejectsQuietSpectra() {
+        ConstantQPitchDetector detector = new ConstantQPitchDetector(27.5, Math.pow(2, 1 / 36.0),
+                36 * 7, ConstantQPitchDetector.DEFAULT_NUM_HARMONICS, 440);
+        float[] spectrum = new float[36 * 7];
+        PitchEstimate estimate = new PitchEstimate();
+        estimate.set(440, 440, 1);
+        Arrays.fill(spectrum, Float.NEGATIVE_INFINITY);
+        assertFalse(detector.detect(spectrum, estimate));
+        assertFalse(estimate.isPitched());
+
+        detector.setMinLevelDb(20);
+        Arrays.fill(spectrum, 10);
+        spectrum[100] = 15;
+        assertFalse(detector.detect(spectrum, estimate));
+    }
+}
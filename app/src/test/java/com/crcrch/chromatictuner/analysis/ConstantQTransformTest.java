@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConstantQTransformTest {
+    private static final double SAMPLE_RATE = 44100;
+    private static final double MIN_FREQ = 110;
+    private static final double RATIO = Math.pow(2, 1 / 12.0);
+    private static final int NUM_BINS = 37;
+
+    private static float[] createSignal(int length, double sampleRate, long seed) {
+        Random random = new Random(seed);
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++) {
+            double t = i / sampleRate;
+            signal[i] = (float) (Math.sin(2 * Math.PI * 220 * t)
+                    + 0.3 * Math.sin(2 * Math.PI * 660 * t)
+                    + 0.1 * random.nextGaussian() + 0.2);
+        }
+        return signal;
+    }
+
+    private static float[] transformFull(ConstantQTransform transform, float[] signal,
+                                         int offset) {
+        int n = transform.getFftSize();
+        float[] input = new float[2 * n];
+        System.arraycopy(signal, offset, input, 0, n);
+        float[] output = new float[transform.getNumCoefficients()];
+        transform.realConstantQPowerDbFull(input, output, 1e-3);
+        return output;
+    }
+
+    private static float[] transformHalf(ConstantQTransform transform, float[] signal,
+                                         int offset) {
+        int n = transform.getFftSize();
+        float[] input = new float[n];
+        System.arraycopy(signal, offset, input, 0, n);
+        float[] output = new float[transform.getNumCoefficients()];
+        transform.realConstantQPowerDb(input, output, 1e-3);
+        return output;
+    }
+
+    private static double maxDifference(float[] a, float[] b) {
+        double max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+
+    private static double maxDifferenceAbove(float[] expected, float[] actual, double levelDb) {
+        double max = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] > levelDb) {
+                max = Math.max(max, Math.abs(expected[i] - actual[i]));
+            }
+        }
+        return max;
+    }
+
+    private static float max(float[] a) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (float x : a) {
+            max = Math.max(max, x);
+        }
+        return max;
+    }
+
+    @Test
+    public void halfSpectrumMatchesFullSpectrum() {
+        ConstantQTransform full = new ConstantQTransform.Builder(
+                SAMPLE_RATE, MIN_FREQ, RATIO, NUM_BINS).build();
+        ConstantQTransform half = new ConstantQTransform.Builder(
+                SAMPLE_RATE, MIN_FREQ, RATIO, NUM_BINS).setHalfSpectrum(true).build();
+        assertEquals(full.getFftSize(), half.getFftSize());
+        assertTrue(half.getNumKernelCoefficients() < full.getNumKernelCoefficients());
+
+        float[] signal = createSignal(full.getFftSize(), SAMPLE_RATE, 1);
+        assertEquals(0, maxDifference(transformFull(full, signal, 0),
+                transformHalf(half, signal, 0)), 1e-3);
+    }
+
+    @Test
+    public void sparseKernelMatchesDenseKernel() {
+        ConstantQTransform dense = new ConstantQTransform.Builder(
+                SAMPLE_RATE, MIN_FREQ, RATIO, NUM_BINS).setHalfSpectrum(true).build();
+        ConstantQTransform sparse = new ConstantQTransform.Builder(
+                SAMPLE_RATE, MIN_FREQ, RATIO, NUM_BINS).setHalfSpectrum(true)
+                .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD).build();
+        assertTrue(sparse.getNumKernelCoefficients() < dense.getNumKernelCoefficients() / 10);
+
+        float[] signal = createSignal(dense.getFftSize(), SAMPLE_RATE, 2);
+        float[] expected = transformHalf(dense, signal, 0);
+        float[] actual = transformHalf(sparse, signal, 0);
+        // Discarded coefficients only matter for bins far below the strongest ones.
+        assertEquals(0, maxDifferenceAbove(expected, actual, max(expected) - 20), 0.5);
+    }
+
+    @Test
+    public void batchMatchesSingleFrames() {
+        for (boolean halfSpectrum : new boolean[]{true, false}) {
+            ConstantQTransform transform = new ConstantQTransform.Builder(
+                    SAMPLE_RATE, MIN_FREQ, RATIO, NUM_BINS).setHalfSpectrum(halfSpectrum)
+                    .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD).build();
+            int n = transform.getFftSize();
+            int hopSize = 735;
+            int numFrames = 21;
+            int offset = 3;
+            float[] signal = createSignal(offset + n + hopSize * (numFrames - 1), SAMPLE_RATE,
+                    3);
+            float[][] batch = new float[numFrames][transform.getNumCoefficients()];
+            transform.realConstantQPowerDb(signal, offset, hopSize, numFrames, batch, 1e-3);
+
+            for (int f = 0; f < numFrames; f++) {
+                int frameOffset = offset + f * hopSize;
+                float[] single = halfSpectrum ? transformHalf(transform, signal, frameOffset)
+                        : transformFull(transform, signal, frameOffset);
+                assertEquals("frame " + f, 0, maxDifference(single, batch[f]), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void outputModesAgree() {
+        ConstantQTransform transform = new ConstantQTransform.Builder(
+                SAMPLE_RATE, MIN_FREQ, RATIO, NUM_BINS).setHalfSpectrum(true)
+                .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD).build();
+        int n = transform.getFftSize();
+        float[] signal = createSignal(n, SAMPLE_RATE, 4);
+        ConstantQTransform.OutputMode[] modes = ConstantQTransform.OutputMode.values();
+        float[][] outputs = new float[modes.length][];
+        for (int m = 0; m < modes.length; m++) {
+            outputs[m] = new float[transform.getOutputLength(modes[m])];
+            float[] input = signal.clone();
+            transform.realConstantQ(input, outputs[m], modes[m], 2);
+        }
+
+        float[] complex = outputs[ConstantQTransform.OutputMode.COMPLEX.ordinal()];
+        for (int i = 0; i < NUM_BINS; i++) {
+            double power = complex[2 * i] * (double) complex[2 * i]
+                    + complex[2 * i + 1] * (double) complex[2 * i + 1];
+            double db = 10 * Math.log10(power / 2);
+            float magnitude = outputs[ConstantQTransform.OutputMode.MAGNITUDE.ordinal()][i];
+            assertEquals(power, magnitude * (double) magnitude, power * 1e-4);
+            assertEquals(power, outputs[ConstantQTransform.OutputMode.POWER.ordinal()][i],
+                    power * 1e-4);
+            assertEquals(db, outputs[ConstantQTransform.OutputMode.POWER_DB.ordinal()][i], 1e-3);
+            assertEquals(db, outputs[ConstantQTransform.OutputMode.FAST_POWER_DB.ordinal()][i],
+                    1e-3);
+        }
+    }
+
+    @Test
+    public void streamingFramesMatchDirectTransform() {
+        ConstantQTransform transform = new ConstantQTransform.Builder(
+                8000, MIN_FREQ, RATIO, 13).setHalfSpectrum(true).build();
+        int n = transform.getFftSize();
+        int hopSize = 137;
+        StreamingConstantQTransform stream = new StreamingConstantQTransform(transform, hopSize);
+        float[] signal = createSignal(4 * n, 8000, 5);
+        Random random = new Random(6);
+
+        float[] output = new float[13];
+        int numFrames = 0;
+        int position = 0;
+        while (position < signal.length) {
+            int length = Math.min(1 + random.nextInt(500), signal.length - position);
+            int end = position + length;
+            while (position < end) {
+                position += stream.write(signal, position, end - position);
+                if (stream.isFrameReady()) {
+                    stream.realConstantQPowerDb(output, 1e-3);
+                    assertEquals(0, (position - n) % hopSize);
+                    assertEquals(0, maxDifference(transformHalf(transform, signal, position - n),
+                            output), 0);
+                    numFrames++;
+                }
+            }
+        }
+        assertEquals((signal.length - n) / hopSize + 1, numFrames);
+    }
+
+    @Test
+    public void zeroPaddedKernelCoversNewestSamples() {
+        // A padded FFT must measure the same recent samples as the exact size, so a burst at
+        // the end of the frame reads as loud as it does without padding.
+        ConstantQTransform exact = new ConstantQTransform.Builder(SAMPLE_RATE, 55, RATIO, 24)
+                .setHalfSpectrum(true).setWindow(TabulatedWindow.HANN)
+                .setFftSizePolicy(ConstantQTransform.FftSizePolicy.EXACT).build();
+        ConstantQTransform padded = new ConstantQTransform.Builder(SAMPLE_RATE, 55, RATIO, 24)
+                .setHalfSpectrum(true).setWindow(TabulatedWindow.HANN)
+                .setFftSizePolicy(ConstantQTransform.FftSizePolicy.POWER_OF_TWO).build();
+        int exactSize = exact.getFftSize();
+        int paddedSize = padded.getFftSize();
+        assertTrue(paddedSize > exactSize);
+
+        // A burst as long as the padding, either at the end of the frame or entirely before
+        // the newest exactSize samples.
+        int burstLength = paddedSize - exactSize;
+        float[] atEnd = new float[paddedSize];
+        float[] atStart = new float[paddedSize];
+        for (int i = 0; i < burstLength; i++) {
+            float x = (float) Math.sin(2 * Math.PI * 55 * i / SAMPLE_RATE);
+            atEnd[exactSize + i] = x;
+            atStart[i] = x;
+        }
+        float expected = transformHalf(exact, atEnd, burstLength)[0];
+        assertEquals(expected, transformHalf(padded, atEnd, 0)[0], 1);
+        assertTrue(transformHalf(padded, atStart, 0)[0] < expected - 20);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class McLeodPitchEngineTest {
+    private static final double SAMPLE_RATE = 44100;
+
+    private static double centsBetween(double expected, double actual) {
+        return 1200 * Math.log(actual / expected) / Math.log(2);
+    }
+
+    @Test
+    public void detectsHarmonicTones() {
+        McLeodPitchEngine engine = new McLeodPitchEngine(SAMPLE_RATE, 40, 2000, 440);
+        Random random = new Random(2);
+        PitchEstimate estimate = new PitchEstimate();
+        for (double frequency : new double[]{41.2, 55, 82.41, 110, 196, 261.63, 445, 880,
+                1318.5, 1900}) {
+            float[] samples = new float[engine.getWindowLength() + 1000];
+            for (int i = 0; i < samples.length; i++) {
+                double phase = 2 * Math.PI * frequency * i / SAMPLE_RATE;
+                samples[i] = (float) (0.2 * Math.sin(phase) + 0.5 * Math.sin(2 * phase + 1)
+                        + 0.3 * Math.sin(3 * phase + 2) + 0.05 * random.nextGaussian());
+            }
+            engine.reset();
+            for (int i = 0; i < samples.length; i += 333) {
+                engine.write(samples, i, Math.min(333, samples.length - i));
+            }
+            assertTrue(frequency + " Hz", engine.detect(estimate));
+            assertEquals(frequency + " Hz", 0,
+                    centsBetween(frequency, estimate.getFrequency()), 5);
+        }
+    }
+
+    @Test
+    public void rejectsNoise() {
+        McLeodPitchEngine engine = new McLeodPitchEngine(SAMPLE_RATE, 40, 2000, 440);
+        Random random = new Random(3);
+        float[] noise = new float[engine.getWindowLength()];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (float) random.nextGaussian();
+        }
+        engine.write(noise, 0, noise.length);
+        PitchEstimate estimate = new PitchEstimate();
+        assertFalse(engine.detect(estimate));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OctaveConstantQTransformTest {
+    private static final double SAMPLE_RATE = 44100;
+    private static final double MIN_FREQ = 55;
+    private static final int BINS_PER_OCTAVE = 12;
+    private static final int NUM_BINS = 48;
+    private static final int HOP_SIZE = 735;
+
+    private static float[] lastFrame(ConstantQStream stream, float[] signal) {
+        float[] output = new float[stream.getNumCoefficients()];
+        int position = 0;
+        while (position < signal.length) {
+            position += stream.write(signal, position, signal.length - position);
+            if (stream.isFrameReady()) {
+                stream.realConstantQPowerDb(output, 1);
+            }
+        }
+        return output;
+    }
+
+    private static int argMax(float[] a) {
+        int max = 0;
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] > a[max]) {
+                max = i;
+            }
+        }
+        return max;
+    }
+
+    @Test
+    public void matchesSingleFft() {
+        OctaveConstantQTransform octaves = new OctaveConstantQTransform(null, SAMPLE_RATE,
+                MIN_FREQ, BINS_PER_OCTAVE, NUM_BINS,
+                ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD, HOP_SIZE);
+        ConstantQTransform single = new ConstantQTransform.Builder(SAMPLE_RATE, MIN_FREQ,
+                Math.pow(2, 1.0 / BINS_PER_OCTAVE), NUM_BINS).setHalfSpectrum(true)
+                .setKernelThreshold(ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD).build();
+        StreamingConstantQTransform stream = new StreamingConstantQTransform(single, HOP_SIZE);
+        assertEquals(4, octaves.getNumOctaves());
+        assertTrue(octaves.getFftSize() < single.getFftSize());
+
+        // One tone in each octave, including the top bin of a decimated octave.
+        for (int bin : new int[]{4, 17, 23, 31, 43}) {
+            double frequency = MIN_FREQ * Math.pow(2, (double) bin / BINS_PER_OCTAVE);
+            float[] signal = new float[200000];
+            for (int i = 0; i < signal.length; i++) {
+                signal[i] = (float) (0.5 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            }
+            octaves.reset();
+            stream.reset();
+            float[] expected = lastFrame(stream, signal);
+            float[] actual = lastFrame(octaves, signal);
+            assertEquals(bin, argMax(expected));
+            assertEquals(bin, argMax(actual));
+            assertEquals("bin " + bin, expected[bin], actual[bin], 0.5);
+        }
+    }
+
+    @Test
+    public void fitsPassband() {
+        assertTrue(OctaveConstantQTransform.fitsPassband(SAMPLE_RATE, MIN_FREQ, BINS_PER_OCTAVE,
+                NUM_BINS));
+        // A single octave only has to stay below the Nyquist frequency.
+        assertTrue(OctaveConstantQTransform.fitsPassband(8000, 2000, 12, 12));
+        // The top bin is below the Nyquist frequency, but the octave below it would reach into
+        // the transition band of the decimation filter.
+        assertFalse(OctaveConstantQTransform.fitsPassband(8000, 1000, 12, 24));
+        assertFalse(OctaveConstantQTransform.fitsPassband(8000, 2200, 12, 12));
+        assertFalse(OctaveConstantQTransform.fitsPassband(SAMPLE_RATE, MIN_FREQ, 0, NUM_BINS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOctavesOutsidePassband() {
+        OctaveConstantQTransform.createOctaveKernelBuilder(null, 8000, 1000, 12, 24,
+                ConstantQTransform.RECOMMENDED_KERNEL_THRESHOLD);
+    }
+
+    @Test
+    public void getBinsPerOctave() {
+        assertEquals(12, OctaveConstantQTransform.getBinsPerOctave(Math.pow(2, 1 / 12.0)));
+        assertEquals(36, OctaveConstantQTransform.getBinsPerOctave(Math.pow(2, 1 / 36.0)));
+        assertEquals(-1, OctaveConstantQTransform.getBinsPerOctave(1.06));
+    }
+}
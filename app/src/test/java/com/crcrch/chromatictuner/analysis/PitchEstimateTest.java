@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PitchEstimateTest {
+    @Test
+    public void namesPitches() {
+        PitchEstimate estimate = new PitchEstimate();
+        estimate.set(261.63, 440, 1);
+        assertTrue(estimate.isPitched());
+        assertEquals(0, estimate.getPitchClass());
+        assertEquals(4, estimate.getOctave());
+        assertEquals(0, estimate.getCents(), 0.1);
+
+        estimate.set(246.9, 440, 1);
+        assertEquals(11, estimate.getPitchClass());
+        assertEquals(3, estimate.getOctave());
+
+        estimate.set(27.5, 440, 1);
+        assertEquals(9, estimate.getPitchClass());
+        assertEquals(0, estimate.getOctave());
+
+        estimate.set(440 * Math.pow(2, 30 / 1200.0), 440, 1);
+        assertEquals(9, estimate.getPitchClass());
+        assertEquals(30, estimate.getCents(), 1e-6);
+    }
+
+    @Test
+    public void copiesAllFields() {
+        // The readouts hand estimates between threads by copying, so a copy must carry every
+        // field of one frame.
+        PitchEstimate source = new PitchEstimate();
+        source.set(445, 440, 0.9);
+        PitchEstimate copy = new PitchEstimate();
+        copy.copyFrom(source);
+        assertTrue(copy.isPitched());
+        assertEquals(source.getFrequency(), copy.getFrequency(), 0);
+        assertEquals(source.getSemitonesFromA4(), copy.getSemitonesFromA4());
+        assertEquals(source.getCents(), copy.getCents(), 0);
+        assertEquals(source.getStrength(), copy.getStrength(), 0);
+
+        source.clear();
+        copy.copyFrom(source);
+        assertFalse(copy.isPitched());
+    }
+}
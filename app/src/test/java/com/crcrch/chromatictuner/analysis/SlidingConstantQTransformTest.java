@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlidingConstantQTransformTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final double MIN_FREQ = 55;
+    private static final double RATIO = Math.pow(2, 1 / 12.0);
+    private static final int NUM_BINS = 60;
+    private static final int HOP_SIZE = 735;
+
+    private static float[] createSignal(int length) {
+        double frequency = MIN_FREQ * Math.pow(RATIO, 27.3);
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            signal[i] = (float) (0.5 * Math.sin(2 * Math.PI * frequency * t)
+                    + 0.2 * Math.sin(2 * Math.PI * 2.7 * frequency * t));
+        }
+        return signal;
+    }
+
+    @Test
+    public void matchesStreamingTransform() {
+        ConstantQTransform transform = new ConstantQTransform.Builder(SAMPLE_RATE, MIN_FREQ,
+                RATIO, NUM_BINS).setHalfSpectrum(true).setKernelThreshold(0.0001f)
+                .setWindow(TabulatedWindow.HANN).build();
+        StreamingConstantQTransform streaming =
+                new StreamingConstantQTransform(transform, HOP_SIZE);
+        SlidingConstantQTransform sliding = new SlidingConstantQTransform(SAMPLE_RATE, MIN_FREQ,
+                RATIO, NUM_BINS, HOP_SIZE);
+        float[] signal = createSignal(2 * SAMPLE_RATE);
+
+        float[] expected = new float[NUM_BINS];
+        float[] actual = new float[NUM_BINS];
+        int[] blockSizes = {1, 7, 100, 1000, 333};
+        int nextBlock = 0;
+        int streamingOffset = 0;
+        int slidingOffset = 0;
+        int numFrames = 0;
+        while (streamingOffset < signal.length) {
+            streamingOffset += streaming.write(signal, streamingOffset,
+                    Math.min(signal.length - streamingOffset, HOP_SIZE));
+            if (!streaming.isFrameReady()) {
+                continue;
+            }
+            streaming.realConstantQPowerDb(expected, 1);
+            // Writing in uneven blocks must stop at the same frame boundaries.
+            while (!sliding.isFrameReady()) {
+                int blockSize = blockSizes[nextBlock++ % blockSizes.length];
+                slidingOffset += sliding.write(signal, slidingOffset,
+                        Math.min(blockSize, signal.length - slidingOffset));
+            }
+            sliding.realConstantQPowerDb(actual, 1);
+            assertEquals(streamingOffset, slidingOffset);
+            if (++numFrames > 2) {
+                for (int k = 0; k < NUM_BINS; k++) {
+                    if (expected[k] > 100) {
+                        assertEquals("bin " + k, expected[k], actual[k], 0.1);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reanchoringBoundsDrift() {
+        SlidingConstantQTransform longRunning = new SlidingConstantQTransform(SAMPLE_RATE,
+                MIN_FREQ, RATIO, NUM_BINS, HOP_SIZE);
+        SlidingConstantQTransform fresh = new SlidingConstantQTransform(SAMPLE_RATE, MIN_FREQ,
+                RATIO, NUM_BINS, HOP_SIZE);
+        float[] signal = createSignal(SAMPLE_RATE);
+        float[] output = new float[NUM_BINS];
+        for (int rep = 0; rep < 60; rep++) {
+            int offset = 0;
+            while (offset < signal.length) {
+                offset += longRunning.write(signal, offset, signal.length - offset);
+                if (longRunning.isFrameReady()) {
+                    longRunning.realConstantQPowerDb(output, 1);
+                }
+            }
+        }
+        float[] expected = new float[NUM_BINS];
+        int offset = 0;
+        while (offset < signal.length) {
+            offset += fresh.write(signal, offset, signal.length - offset);
+            if (fresh.isFrameReady()) {
+                fresh.realConstantQPowerDb(expected, 1);
+            }
+        }
+        // Both have seen the same last second, which is longer than every window.
+        for (int k = 0; k < NUM_BINS; k++) {
+            if (expected[k] > 100) {
+                assertEquals("bin " + k, expected[k], output[k], 0.1);
+            }
+        }
+    }
+}
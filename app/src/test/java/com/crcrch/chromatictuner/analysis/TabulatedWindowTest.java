@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TabulatedWindowTest {
+    @Test
+    public void forNameFindsWindows() {
+        TabulatedWindow[] windows = {TabulatedWindow.HANN, TabulatedWindow.HAMMING,
+                TabulatedWindow.BLACKMAN_HARRIS, TabulatedWindow.kaiser(8.6)};
+        for (TabulatedWindow window : windows) {
+            assertSame(window, TabulatedWindow.forName(window.getName()));
+        }
+        assertNull(TabulatedWindow.forName("kaiser-x"));
+        assertNull(TabulatedWindow.forName("rectangular"));
+    }
+
+    @Test
+    public void internsKaiserWindows() {
+        TabulatedWindow window = TabulatedWindow.kaiser(5);
+        assertSame(window, TabulatedWindow.kaiser(5));
+        assertSame(window, TabulatedWindow.forName("kaiser-5.0"));
+        assertSame(window.getCoefficients(64), TabulatedWindow.kaiser(5).getCoefficients(64));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeKaiserBeta() {
+        TabulatedWindow.kaiser(-1);
+    }
+
+    @Test
+    public void coefficientsAreSymmetric() {
+        for (TabulatedWindow window : new TabulatedWindow[]{TabulatedWindow.HANN,
+                TabulatedWindow.HAMMING, TabulatedWindow.BLACKMAN_HARRIS,
+                TabulatedWindow.kaiser(8.6)}) {
+            for (int length : new int[]{2, 7, 65}) {
+                float[] coefficients = window.getCoefficients(length);
+                for (int n = 0; n < length; n++) {
+                    assertEquals(coefficients[n], coefficients[length - 1 - n], 1e-6);
+                }
+                if (length % 2 == 1) {
+                    assertEquals(window.getName(), 1, coefficients[length / 2], 1e-6);
+                }
+            }
+            assertArrayEquals(new float[]{1}, window.getCoefficients(1), 0);
+        }
+    }
+
+    @Test
+    public void hannMatchesDefinition() {
+        float[] coefficients = TabulatedWindow.HANN.getCoefficients(9);
+        for (int n = 0; n < 9; n++) {
+            assertEquals(0.5 - 0.5 * Math.cos(2 * Math.PI * n / 8), coefficients[n], 1e-6);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TargetedPitchAnalyzerTest {
+    private static final int SAMPLE_RATE = 44100;
+
+    private static float[] createTone(double frequency, int length) {
+        float[] tone = new float[length];
+        for (int i = 0; i < length; i++) {
+            double phase = 2 * Math.PI * frequency * i / SAMPLE_RATE;
+            tone[i] = (float) (0.5 * Math.sin(phase) + 0.3 * Math.sin(2 * phase + 1)
+                    + 0.1 * Math.sin(3 * phase));
+        }
+        return tone;
+    }
+
+    private static float[] createSine(double frequency, int length) {
+        float[] sine = new float[length];
+        for (int i = 0; i < length; i++) {
+            sine[i] = (float) (0.5 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        return sine;
+    }
+
+    private static void writeInBlocks(TargetedPitchAnalyzer analyzer, float[] samples) {
+        for (int i = 0; i < samples.length; i += 367) {
+            analyzer.write(samples, i, Math.min(367, samples.length - i));
+        }
+    }
+
+    @Test
+    public void measuresDeviation() {
+        for (double target : new double[]{82.41, 440, 1000}) {
+            TargetedPitchAnalyzer analyzer = new TargetedPitchAnalyzer(SAMPLE_RATE, target);
+            for (int cents = -45; cents <= 45; cents += 5) {
+                analyzer.reset();
+                writeInBlocks(analyzer, createTone(target * Math.pow(2, cents / 1200.0),
+                        SAMPLE_RATE));
+                assertTrue(target + " Hz " + cents + " cents", analyzer.analyze());
+                assertEquals(target + " Hz", cents, analyzer.getCents(), 1);
+                assertTrue(analyzer.getMagnitude() > 0.4);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsDistantPitch() {
+        TargetedPitchAnalyzer analyzer = new TargetedPitchAnalyzer(SAMPLE_RATE, 440);
+        analyzer.setMinMagnitude(0.1);
+        float[] tone = createTone(523.25, SAMPLE_RATE);
+        analyzer.write(tone, 0, tone.length);
+        assertFalse(analyzer.analyze());
+        assertTrue(Double.isNaN(analyzer.getCents()));
+    }
+
+    @Test
+    public void needsFullWindow() {
+        TargetedPitchAnalyzer analyzer = new TargetedPitchAnalyzer(SAMPLE_RATE, 440);
+        float[] tone = createTone(440, analyzer.getWindowLength());
+        analyzer.write(tone, 0, tone.length - 1);
+        assertFalse(analyzer.analyze());
+        analyzer.write(tone, tone.length - 1, 1);
+        assertTrue(analyzer.analyze());
+
+        analyzer.reset();
+        assertFalse(analyzer.analyze());
+    }
+
+    @Test
+    public void rejectsQuietSignal() {
+        TargetedPitchAnalyzer analyzer = new TargetedPitchAnalyzer(SAMPLE_RATE, 440);
+        analyzer.setMinMagnitude(0.6);
+        float[] tone = createTone(440, SAMPLE_RATE);
+        analyzer.write(tone, 0, tone.length);
+        assertFalse(analyzer.analyze());
+        analyzer.setMinMagnitude(0.4);
+        assertTrue(analyzer.analyze());
+    }
+
+    @Test
+    public void slidingSumsMatchFreshAnalyzer() {
+        // Many seconds of writes must give the same result as an analyzer that only saw the
+        // last second.
+        TargetedPitchAnalyzer longRunning = new TargetedPitchAnalyzer(SAMPLE_RATE, 440);
+        float[] tone = createTone(443, SAMPLE_RATE);
+        for (int i = 0; i < 60; i++) {
+            writeInBlocks(longRunning, tone);
+        }
+        TargetedPitchAnalyzer fresh = new TargetedPitchAnalyzer(SAMPLE_RATE, 440);
+        writeInBlocks(fresh, tone);
+
+        assertTrue(longRunning.analyze());
+        assertTrue(fresh.analyze());
+        assertEquals(fresh.getCents(), longRunning.getCents(), 1e-6);
+        assertEquals(fresh.getMagnitude(), longRunning.getMagnitude(), 1e-6);
+    }
+
+    @Test
+    public void retargetingKeepsHistory() {
+        TargetedPitchAnalyzer analyzer = new TargetedPitchAnalyzer(SAMPLE_RATE, 440);
+        analyzer.setMinMagnitude(0.1);
+        float[] tone = createSine(660 * Math.pow(2, 10 / 1200.0), SAMPLE_RATE);
+        writeInBlocks(analyzer, tone);
+        assertFalse(analyzer.analyze());
+
+        analyzer.setTargetFrequency(660);
+        assertTrue(analyzer.analyze());
+        assertEquals(10, analyzer.getCents(), 1);
+    }
+
+    @Test
+    public void dropsHarmonicsAboveNyquist() {
+        double maxTarget = TargetedPitchAnalyzer.getMaxTargetFrequency(SAMPLE_RATE);
+        assertTrue(maxTarget < SAMPLE_RATE / 2.0);
+        assertEquals(3, new TargetedPitchAnalyzer(SAMPLE_RATE, 440).getNumHarmonics());
+        assertEquals(2, new TargetedPitchAnalyzer(SAMPLE_RATE, 7500).getNumHarmonics());
+
+        for (double target : new double[]{7500, 11000, maxTarget}) {
+            TargetedPitchAnalyzer analyzer = new TargetedPitchAnalyzer(SAMPLE_RATE, target);
+            float[] sine = createSine(Math.min(target * Math.pow(2, 10 / 1200.0),
+                    0.999 * SAMPLE_RATE / 2), SAMPLE_RATE);
+            analyzer.write(sine, 0, sine.length);
+            assertTrue(target + " Hz", analyzer.analyze());
+        }
+        assertEquals(1, new TargetedPitchAnalyzer(SAMPLE_RATE, maxTarget).getNumHarmonics());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTargetAboveMax() {
+        new TargetedPitchAnalyzer(SAMPLE_RATE,
+                1.001 * TargetedPitchAnalyzer.getMaxTargetFrequency(SAMPLE_RATE));
+    }
+}
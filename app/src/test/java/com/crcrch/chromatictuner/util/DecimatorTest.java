@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecimatorTest {
+    private static final Decimator[] DECIMATORS = {new MinMaxDecimator(), new LttbDecimator()};
+
+    @Test
+    public void keepsExtremesAndSpikes() {
+        int length = 3200;
+        float[] in = new float[length];
+        for (int i = 0; i < length; i++) {
+            in[i] = (float) (0.5 * Math.sin(2 * Math.PI * 440 * i / 192000.0)
+                    + 0.4 * Math.sin(2 * Math.PI * 445 * i / 192000.0));
+        }
+        in[1234] = 0.99f;
+        for (Decimator decimator : DECIMATORS) {
+            String name = decimator.getClass().getSimpleName();
+            int outputLength = decimator.getOutputLength(length, 1000);
+            assertTrue(name, outputLength < length);
+            float[] x = new float[outputLength];
+            float[] y = new float[outputLength];
+            assertEquals(name, outputLength, decimator.decimate(in, 1000, x, y));
+
+            boolean keptSpike = false;
+            for (int i = 0; i < outputLength; i++) {
+                assertEquals(name, in[(int) x[i]], y[i], 0);
+                keptSpike |= x[i] == 1234;
+            }
+            assertTrue(name, keptSpike);
+            assertEquals(name, 0, x[0], 0);
+            assertEquals(name, length - 1, x[outputLength - 1], 0);
+        }
+    }
+
+    @Test
+    public void outputsIncreasingIndices() {
+        Random random = new Random(1);
+        for (Decimator decimator : DECIMATORS) {
+            for (int length = 4; length < 50; length++) {
+                float[] in = new float[length];
+                for (int i = 0; i < length; i++) {
+                    in[i] = random.nextFloat();
+                }
+                for (int columns = 1; columns < length; columns++) {
+                    int outputLength = decimator.getOutputLength(length, columns);
+                    float[] x = new float[outputLength];
+                    float[] y = new float[outputLength];
+                    assertEquals(outputLength, decimator.decimate(in, columns, x, y));
+                    for (int i = 1; i < outputLength; i++) {
+                        assertTrue(x[i] > x[i - 1]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void copiesShortInput() {
+        float[] in = {1, 2, 3};
+        for (Decimator decimator : DECIMATORS) {
+            float[] x = new float[3];
+            float[] y = new float[3];
+            assertEquals(3, decimator.decimate(in, 1000, x, y));
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i, x[i], 0);
+                assertEquals(in[i], y[i], 0);
+            }
+        }
+    }
+}
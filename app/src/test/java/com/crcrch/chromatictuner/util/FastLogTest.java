@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FastLogTest {
+    @Test
+    public void log2ErrorIsBounded() {
+        Random random = new Random(1);
+        double maxError = 0;
+        for (int i = 0; i < 1000000; i++) {
+            // Normal floats across the whole exponent range
+            float x = (float) Math.pow(2, 250 * random.nextDouble() - 125);
+            double exact = Math.log(x) / Math.log(2);
+            maxError = Math.max(maxError,
+                    Math.abs(FastLog.log2(x) - exact) - Math.ulp((float) exact));
+        }
+        assertTrue("max error " + maxError, maxError <= 1.1e-5);
+        assertEquals(0, FastLog.log2(1), 0);
+        assertEquals(10, FastLog.log2(1024), 0);
+        assertEquals(-3, FastLog.log2(0.125f), 0);
+    }
+
+    @Test
+    public void log2SpecialValues() {
+        assertEquals(Float.NEGATIVE_INFINITY, FastLog.log2(0), 0);
+        assertEquals(Float.POSITIVE_INFINITY, FastLog.log2(Float.POSITIVE_INFINITY), 0);
+        assertTrue(Float.isNaN(FastLog.log2(-1)));
+        assertTrue(Float.isNaN(FastLog.log2(Float.NaN)));
+        assertEquals(-149, FastLog.log2(Float.MIN_VALUE), 1e-3);
+    }
+
+    @Test
+    public void powerToDbMatchesLog10() {
+        Random random = new Random(2);
+        float[] power = new float[10000];
+        for (int i = 0; i < power.length; i++) {
+            power[i] = (float) Math.pow(10, 20 * random.nextDouble() - 5);
+        }
+        float[] db = power.clone();
+        FastLog.powerToDb(db, 10, db.length, 2e-3);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(power[i], db[i], 0);
+        }
+        for (int i = 10; i < power.length; i++) {
+            assertEquals(10 * Math.log10(power[i] / 2e-3), db[i], 1e-4);
+        }
+    }
+}
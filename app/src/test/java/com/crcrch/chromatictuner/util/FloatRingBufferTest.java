@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FloatRingBufferTest {
+    private static float[] sequence(int start, int length) {
+        float[] samples = new float[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = start + i;
+        }
+        return samples;
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(1024, new FloatRingBuffer(1000).getCapacity());
+        assertEquals(1024, new FloatRingBuffer(1024).getCapacity());
+        assertEquals(1, new FloatRingBuffer(1).getCapacity());
+    }
+
+    @Test
+    public void readsInOrderAcrossWrapAround() {
+        FloatRingBuffer buffer = new FloatRingBuffer(8);
+        float[] output = new float[5];
+        int next = 0;
+        for (int round = 0; round < 10; round++) {
+            assertEquals(5, buffer.write(sequence(next, 5), 0, 5));
+            assertEquals(5, buffer.available());
+            assertEquals(5, buffer.read(output, 0, 5));
+            assertArrayEquals(sequence(next, 5), output, 0);
+            next += 5;
+        }
+        assertEquals(0, buffer.getOverrunCount());
+    }
+
+    @Test
+    public void dropsSamplesThatDoNotFit() {
+        FloatRingBuffer buffer = new FloatRingBuffer(8);
+        assertEquals(6, buffer.write(sequence(0, 6), 0, 6));
+        assertEquals(2, buffer.write(sequence(6, 5), 0, 5));
+        assertEquals(0, buffer.write(sequence(11, 3), 0, 3));
+        assertEquals(2, buffer.getOverrunCount());
+        assertEquals(6, buffer.getDroppedSampleCount());
+
+        float[] output = new float[8];
+        assertEquals(8, buffer.read(output, 0, 8));
+        assertArrayEquals(sequence(0, 8), output, 0);
+    }
+
+    @Test
+    public void skipDiscardsSamples() {
+        FloatRingBuffer buffer = new FloatRingBuffer(16);
+        buffer.write(sequence(0, 10), 0, 10);
+        assertEquals(4, buffer.skip(4));
+        float[] output = new float[6];
+        assertEquals(6, buffer.read(output, 0, 10 - 4));
+        assertArrayEquals(sequence(4, 6), output, 0);
+        assertEquals(0, buffer.skip(4));
+    }
+
+    @Test
+    public void readFullyStopsAtClose() throws InterruptedException {
+        FloatRingBuffer buffer = new FloatRingBuffer(16);
+        buffer.write(sequence(0, 3), 0, 3);
+        buffer.close();
+        float[] output = new float[8];
+        assertEquals(3, buffer.readFully(output, 0, 8));
+    }
+
+    @Test
+    public void handsOffSamplesBetweenThreads() throws InterruptedException {
+        final FloatRingBuffer buffer = new FloatRingBuffer(1000);
+        final int total = 2000000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] block = new float[333];
+                int next = 0;
+                while (next < total) {
+                    int n = Math.min(block.length, total - next);
+                    for (int i = 0; i < n; i++) {
+                        block[i] = next + i;
+                    }
+                    buffer.write(block, 0, n);
+                    next += n;
+                    while (buffer.available() > 600) {
+                        Thread.yield();
+                    }
+                }
+                buffer.close();
+            }
+        });
+        producer.start();
+
+        // Samples may only be dropped as a whole, so whatever arrives must be in order.
+        float[] output = new float[256];
+        long received = 0;
+        float last = -1;
+        while (true) {
+            int n = buffer.readFully(output, 0, output.length);
+            for (int i = 0; i < n; i++) {
+                assertEquals(last + 1, output[i], 0);
+                last = output[i];
+            }
+            received += n;
+            if (n < output.length) {
+                break;
+            }
+        }
+        producer.join();
+        assertEquals(0, buffer.getDroppedSampleCount());
+        assertEquals(total, received);
+    }
+}
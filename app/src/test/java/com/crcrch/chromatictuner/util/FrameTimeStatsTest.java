@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameTimeStatsTest {
+    private static final long INTERVAL_NANOS = 16000000;
+
+    @Test
+    public void countsFramesAndJank() {
+        FrameTimeStats stats = new FrameTimeStats(INTERVAL_NANOS);
+        stats.recordFrame(0, true);
+        stats.recordFrame(INTERVAL_NANOS, false);
+        stats.recordFrame(3 * INTERVAL_NANOS, true);
+        assertEquals(3, stats.getNumFrames());
+        assertEquals(2, stats.getNumRenderedFrames());
+        assertEquals(1, stats.getNumJankyFrames());
+        assertEquals(24, stats.getMeanIntervalMillis(), 1e-9);
+        assertEquals(32, stats.getMaxIntervalMillis(), 1e-9);
+    }
+
+    @Test
+    public void pauseSkipsInterval() {
+        FrameTimeStats stats = new FrameTimeStats(INTERVAL_NANOS);
+        for (int i = 0; i < 10; i++) {
+            stats.recordFrame(i * INTERVAL_NANOS, true);
+        }
+        stats.pause();
+        for (int i = 0; i < 10; i++) {
+            stats.recordFrame(1000000000L + i * INTERVAL_NANOS, true);
+        }
+        // 18 intervals were recorded, not the 19 between 20 frames.
+        assertEquals(20, stats.getNumFrames());
+        assertEquals(16, stats.getMeanIntervalMillis(), 1e-9);
+        assertEquals(16, stats.getMaxIntervalMillis(), 1e-9);
+        assertEquals(0, stats.getNumJankyFrames());
+    }
+
+    @Test
+    public void drawTimes() {
+        FrameTimeStats stats = new FrameTimeStats(INTERVAL_NANOS);
+        assertEquals(0, stats.getMeanDrawMillis(), 0);
+        stats.recordDraw(1000000);
+        stats.recordDraw(3000000);
+        assertEquals(2, stats.getMeanDrawMillis(), 1e-9);
+        assertEquals(3, stats.getMaxDrawMillis(), 1e-9);
+
+        stats.reset();
+        assertEquals(0, stats.getNumFrames());
+        assertEquals(0, stats.getMeanIntervalMillis(), 0);
+        assertEquals(0, stats.getMaxDrawMillis(), 0);
+    }
+}
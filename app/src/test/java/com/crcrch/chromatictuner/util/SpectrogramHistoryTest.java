@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpectrogramHistoryTest {
+    @Test
+    public void quantizesAndClamps() {
+        SpectrogramHistory history = new SpectrogramHistory(4, 8, 0, 120);
+        history.add(new float[]{-5, 60, 200, Float.NaN});
+        byte[] levels = new byte[4];
+        assertTrue(history.copyFrame(0, levels));
+        assertEquals(0, levels[0] & 0xff);
+        assertEquals(128, levels[1] & 0xff);
+        assertEquals(255, levels[2] & 0xff);
+        assertEquals(0, levels[3] & 0xff);
+        assertEquals(60, history.getValue(levels[1] & 0xff), 120f / 255);
+        assertEquals(120, history.getValue(255), 1e-4);
+    }
+
+    @Test
+    public void overwritesOldestFrames() {
+        SpectrogramHistory history = new SpectrogramHistory(1, 4, 0, 255);
+        byte[] level = new byte[1];
+        for (int i = 0; i < 6; i++) {
+            history.add(new float[]{i});
+        }
+        assertEquals(6, history.getNumFrames());
+        assertEquals(2, history.getOldestFrame());
+        assertFalse(history.copyFrame(1, level));
+        assertFalse(history.copyFrame(6, level));
+        for (int i = 2; i < 6; i++) {
+            assertTrue(history.copyFrame(i, level));
+            assertEquals(i, level[0] & 0xff);
+        }
+
+        history.clear();
+        assertEquals(0, history.getNumFrames());
+        assertEquals(0, history.getOldestFrame());
+        assertFalse(history.copyFrame(0, level));
+    }
+}
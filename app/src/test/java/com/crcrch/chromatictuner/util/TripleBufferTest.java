@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 David Xu. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.crcrch.chromatictuner.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class TripleBufferTest {
+    private static void publishFrame(TripleBuffer buffer, float value, boolean expectNotify) {
+        float[] back = buffer.getBackBuffer();
+        for (int i = 0; i < back.length; i++) {
+            back[i] = value;
+        }
+        assertEquals(expectNotify, buffer.publish());
+    }
+
+    @Test
+    public void notifiesOncePerAcquire() {
+        TripleBuffer buffer = new TripleBuffer(4);
+        assertFalse(buffer.acquire());
+
+        publishFrame(buffer, 1, true);
+        publishFrame(buffer, 2, false);
+        publishFrame(buffer, 3, false);
+        assertEquals(3, buffer.getPublishedCount());
+        assertEquals(2, buffer.getDroppedCount());
+
+        assertTrue(buffer.acquire());
+        assertEquals(3, buffer.getFrontBuffer()[0], 0);
+        assertFalse(buffer.acquire());
+        assertEquals(3, buffer.getFrontBuffer()[0], 0);
+
+        publishFrame(buffer, 4, true);
+        assertTrue(buffer.acquire());
+        assertEquals(4, buffer.getFrontBuffer()[0], 0);
+    }
+
+    @Test
+    public void producerNeverWritesFrontBuffer() {
+        TripleBuffer buffer = new TripleBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            publishFrame(buffer, i, true);
+            assertTrue(buffer.acquire());
+            assertNotSame(buffer.getFrontBuffer(), buffer.getBackBuffer());
+        }
+    }
+
+    @Test
+    public void handsOffWholeFramesBetweenThreads() throws InterruptedException {
+        final TripleBuffer buffer = new TripleBuffer(4096);
+        final int numFrames = 20000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int f = 1; f <= numFrames; f++) {
+                    float[] back = buffer.getBackBuffer();
+                    for (int i = 0; i < back.length; i++) {
+                        back[i] = f;
+                    }
+                    buffer.publish();
+                }
+            }
+        });
+        producer.start();
+
+        float last = 0;
+        while (true) {
+            // Checked before acquiring, so that the last frame is acquired after the producer
+            // finishes.
+            boolean producing = producer.isAlive();
+            if (!buffer.acquire()) {
+                if (producing) {
+                    continue;
+                }
+                break;
+            }
+            float[] front = buffer.getFrontBuffer();
+            float frame = front[0];
+            for (float x : front) {
+                assertEquals("torn frame", frame, x, 0);
+            }
+            assertTrue(frame > last);
+            last = frame;
+        }
+        producer.join();
+        assertEquals(numFrames, last, 0);
+        assertEquals(numFrames, buffer.getPublishedCount());
+    }
+}